@@ -9,11 +9,33 @@ repositories {
     mavenCentral()
 }
 
+sourceSets {
+    // Classes that replace main ones on Java 21+, packed to META-INF/versions/21 of multi-release jar
+    create("java21") {
+        java.srcDir("src/main/java21")
+        compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+    }
+
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+configurations {
+    named("jmhImplementation") { extendsFrom(configurations.implementation.get()) }
+    named("jmhRuntimeOnly") { extendsFrom(configurations.runtimeOnly.get()) }
+}
+
 dependencies {
     implementation("org.slf4j:slf4j-api:2.0.+")
 
     testImplementation("org.assertj:assertj-core:3.27.+")
     testImplementation("org.testng:testng:7.11.+")
+    testAnnotationProcessor(project(":processor"))
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 tasks {
@@ -24,14 +46,68 @@ tasks {
         targetCompatibility = JavaVersion.VERSION_11
     }
 
+    named<JavaCompile>("compileJava21Java") {
+        javaCompiler.set(project.javaToolchains.compilerFor { languageVersion.set(JavaLanguageVersion.of(21)) })
+        options.release.set(21)
+    }
+
+    jar {
+        manifest {
+            attributes("Multi-Release" to "true")
+        }
+        into("META-INF/versions/21") {
+            from(sourceSets["java21"].output)
+        }
+    }
+
+    named<Jar>("sourcesJar") {
+        into("META-INF/versions/21") {
+            from(sourceSets["java21"].allJava)
+        }
+    }
+
     test {
         useTestNG()
         testLogging.showStandardStreams = true
     }
 
+    // Same tests against multi-release jar instead of main classes, so Java 21 versions of classes are used.
+    // Needs JDK 21 toolchain, so it is part of check only with -Pjava21Tests
+    register<Test>("testJava21") {
+        group = "verification"
+        description = "Runs tests with multi-release jar on Java 21"
+        useTestNG()
+        testLogging.showStandardStreams = true
+        javaLauncher.set(project.javaToolchains.launcherFor { languageVersion.set(JavaLanguageVersion.of(21)) })
+        testClassesDirs = sourceSets.test.get().output.classesDirs
+        classpath = files(jar) + sourceSets.test.get().runtimeClasspath - sourceSets.main.get().output
+        systemProperty("minibus.java21", "true")
+    }
+
+    if (project.hasProperty("java21Tests")) {
+        check {
+            dependsOn("testJava21")
+        }
+    }
+
     javadoc {
         options.overview = "src/main/resources/overview.md"
     }
+
+    // Usage: ./gradlew jmh [-Pjmh.include=PublishBenchmark] [-Pjmh.args="-f 2 -wi 5"]
+    register<JavaExec>("jmh") {
+        group = "benchmark"
+        description = "Runs JMH benchmarks and writes JSON results to build/reports/jmh"
+        dependsOn("jmhClasses")
+        classpath = sourceSets["jmh"].runtimeClasspath
+        mainClass.set("org.openjdk.jmh.Main")
+
+        val results = layout.buildDirectory.file("reports/jmh/results-${project.version}.json").get().asFile
+        args("-rf", "json", "-rff", results.absolutePath)
+        project.findProperty("jmh.args")?.let { args(it.toString().split(" ").filter(String::isNotBlank)) }
+        project.findProperty("jmh.include")?.let { args(it.toString()) }
+        doFirst { results.parentFile.mkdirs() }
+    }
 }
 
 publishing {
@@ -0,0 +1,30 @@
+val artifactGroup = "io.github.jneat"
+
+plugins {
+    id("java")
+    id("maven-publish")
+}
+
+repositories {
+    mavenCentral()
+}
+
+tasks {
+    java {
+        withJavadocJar()
+        withSourcesJar()
+        sourceCompatibility = JavaVersion.VERSION_11
+        targetCompatibility = JavaVersion.VERSION_11
+    }
+}
+
+publishing {
+    publications {
+        create<MavenPublication>("processorMvnPublication") {
+            version = version
+            groupId = artifactGroup
+            artifactId = "minibus-processor"
+            from(components["java"])
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Generates subscriber index for each package with event handlers, so they are subscribed without reflection.
+ * <p>
+ * For every package with non abstract {@code EventBusHandler} subclasses or classes with {@code @Subscribe} methods
+ * {@code MinibusSubscriberIndex} class is generated and listed in
+ * {@code META-INF/services/io.github.jneat.minibus.SubscriberIndex}. Index contains event class of each handler and
+ * direct invokers of subscribe methods.
+ * <p>
+ * Classes that can not be referenced from generated code (private classes or methods, generic handlers without
+ * concrete event type) are not indexed, event bus resolves them with reflection at runtime. Same happens to types
+ * generated by other annotation processors after the first round.
+ * <p>
+ * Handlers are found by {@code IndexedHandler} annotation that every {@code EventBusHandler} subclass inherits, so
+ * processor is not called for sources without handlers. Processor is registered for Gradle incremental compilation
+ * as aggregating one.
+ */
+@SupportedAnnotationTypes({"io.github.jneat.minibus.Subscribe", "io.github.jneat.minibus.IndexedHandler"})
+public class SubscriberIndexProcessor extends AbstractProcessor {
+
+    static final String INDEX_NAME = "MinibusSubscriberIndex";
+
+    private static final String PKG = "io.github.jneat.minibus.";
+
+    private static final String HANDLER = PKG + "EventBusHandler";
+
+    private static final String EVENT = PKG + "EventBusEvent";
+
+    private static final String SUBSCRIBE = PKG + "Subscribe";
+
+    private static final String SERVICE = "META-INF/services/" + PKG + "SubscriberIndex";
+
+    private final Set<String> written = new TreeSet<>();
+
+    private Types types;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        types = processingEnv.getTypeUtils();
+        if (processingEnv.getElementUtils().getTypeElement(EVENT) == null) {
+            // minibus is not on compile classpath, nothing to index
+            return false;
+        }
+        if (roundEnv.processingOver()) {
+            writeServices();
+            return false;
+        }
+
+        Map<String, PackageIndex> packages = new TreeMap<>();
+        for (TypeElement te : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            collect(te, packages);
+        }
+        for (PackageIndex index : packages.values()) {
+            if (!index.isEmpty() && written.add(index.pkg)) {
+                writeIndex(index);
+            }
+        }
+        return false;
+    }
+
+    private void collect(TypeElement te, Map<String, PackageIndex> packages) {
+        for (TypeElement nested : ElementFilter.typesIn(te.getEnclosedElements())) {
+            collect(nested, packages);
+        }
+        if (te.getKind() != ElementKind.CLASS || te.getModifiers().contains(Modifier.ABSTRACT)) {
+            return;
+        }
+
+        String pkg = packageOf(te);
+        if (pkg.isEmpty() || !isAccessible(te, pkg)) {
+            return;
+        }
+
+        PackageIndex index = packages.computeIfAbsent(pkg, PackageIndex::new);
+        TypeMirror event = eventType(te.asType());
+        if (event != null && event.getKind() == TypeKind.DECLARED
+                && isAccessible((TypeElement) types.asElement(event), pkg)) {
+            index.handlers.put(te.getQualifiedName().toString(), typeName(event));
+        }
+
+        List<Method> methods = subscribeMethods(te, pkg);
+        if (methods != null && !methods.isEmpty()) {
+            index.subscribers.put(te.getQualifiedName().toString(), methods);
+        }
+    }
+
+    /**
+     * Event type argument of EventBusHandler with type variables substituted by supertypes walk.
+     */
+    private TypeMirror eventType(TypeMirror type) {
+        for (TypeMirror sup : types.directSupertypes(type)) {
+            TypeElement se = (TypeElement) types.asElement(sup);
+            if (se == null || se.getKind() != ElementKind.CLASS) {
+                continue;
+            }
+            if (se.getQualifiedName().contentEquals(HANDLER)) {
+                List<? extends TypeMirror> args = ((DeclaredType) sup).getTypeArguments();
+                return args.isEmpty() ? null : args.get(0);
+            }
+            return eventType(sup);
+        }
+        return null;
+    }
+
+    /**
+     * @return Subscribe methods of class and its superclasses or null if some of them can not be called directly
+     */
+    private List<Method> subscribeMethods(TypeElement te, String pkg) {
+        List<Method> found = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (TypeElement c = te; c != null && c.getKind() == ElementKind.CLASS; c = superclass(c)) {
+            for (ExecutableElement m : ElementFilter.methodsIn(c.getEnclosedElements())) {
+                AnnotationMirror subscribe = subscribeAnnotation(m);
+                if (subscribe == null) {
+                    continue;
+                }
+                List<? extends VariableElement> params = m.getParameters();
+                TypeMirror event = params.size() == 1 ? types.erasure(params.get(0).asType()) : null;
+                if (m.getModifiers().contains(Modifier.STATIC) || event == null
+                        || !types.isAssignable(event, eventBase())) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Subscribe method must be non static with single event parameter", m);
+                    return null;
+                }
+                if (!seen.add(m.getSimpleName() + ":" + typeName(event))) {
+                    continue;
+                }
+
+                Set<Modifier> mods = m.getModifiers();
+                boolean callable = mods.contains(Modifier.PUBLIC)
+                        || !mods.contains(Modifier.PRIVATE) && packageOf(c).equals(pkg);
+                if (!callable || !isAccessible(c, pkg) || !isAccessible((TypeElement) types.asElement(event), pkg)) {
+                    return null;
+                }
+                found.add(new Method(c.getQualifiedName().toString(), m.getSimpleName().toString(),
+                        typeName(event), isSubtypes(subscribe)));
+            }
+        }
+        return found;
+    }
+
+    private TypeMirror eventBase() {
+        return processingEnv.getElementUtils().getTypeElement(EVENT).asType();
+    }
+
+    private TypeElement superclass(TypeElement te) {
+        TypeMirror sup = te.getSuperclass();
+        return sup.getKind() == TypeKind.DECLARED ? (TypeElement) types.asElement(sup) : null;
+    }
+
+    private AnnotationMirror subscribeAnnotation(Element e) {
+        for (AnnotationMirror am : e.getAnnotationMirrors()) {
+            if (((TypeElement) am.getAnnotationType().asElement()).getQualifiedName().contentEquals(SUBSCRIBE)) {
+                return am;
+            }
+        }
+        return null;
+    }
+
+    private boolean isSubtypes(AnnotationMirror subscribe) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e
+                : subscribe.getElementValues().entrySet()) {
+            if (e.getKey().getSimpleName().contentEquals("subtypes")) {
+                return Boolean.TRUE.equals(e.getValue().getValue());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Type can be referenced from generated class in pkg: each enclosing class is public or package visible.
+     */
+    private boolean isAccessible(TypeElement te, String pkg) {
+        boolean samePkg = packageOf(te).equals(pkg);
+        for (Element e = te; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            Set<Modifier> mods = e.getModifiers();
+            if (mods.contains(Modifier.PRIVATE) || !samePkg && !mods.contains(Modifier.PUBLIC)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String packageOf(Element e) {
+        return processingEnv.getElementUtils().getPackageOf(e).getQualifiedName().toString();
+    }
+
+    private String typeName(TypeMirror type) {
+        return ((TypeElement) types.asElement(types.erasure(type))).getQualifiedName().toString();
+    }
+
+    private void writeIndex(PackageIndex index) {
+        String name = index.pkg + "." + INDEX_NAME;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(name);
+            try (PrintWriter out = new PrintWriter(file.openWriter())) {
+                out.println("package " + index.pkg + ";");
+                out.println();
+                out.println("@SuppressWarnings({\"rawtypes\", \"unchecked\"})");
+                out.println("public final class " + INDEX_NAME + " implements " + PKG + "SubscriberIndex {");
+                out.println();
+                out.println("    private static final java.util.Map<Class<?>, Class<? extends " + EVENT
+                        + ">> EVENT_CLASSES = new java.util.HashMap<>();");
+                out.println();
+                out.println("    private static final java.util.Map<Class<?>, " + PKG
+                        + "SubscriberMethod[]> SUBSCRIBERS = new java.util.HashMap<>();");
+                out.println();
+                out.println("    static {");
+                for (Map.Entry<String, String> e : index.handlers.entrySet()) {
+                    out.println("        EVENT_CLASSES.put(" + e.getKey() + ".class, " + e.getValue() + ".class);");
+                }
+                for (Map.Entry<String, List<Method>> e : index.subscribers.entrySet()) {
+                    out.println("        SUBSCRIBERS.put(" + e.getKey() + ".class, new " + PKG
+                            + "SubscriberMethod[]{");
+                    for (Method m : e.getValue()) {
+                        out.println("            new " + PKG + "SubscriberMethod(" + m.declaringClass + ".class, \""
+                                + m.name + "\", " + m.eventClass + ".class, " + m.subtypes + ",");
+                        out.println("                    (t, e) -> ((" + e.getKey() + ") t)." + m.name + "(("
+                                + m.eventClass + ") e)),");
+                    }
+                    out.println("        });");
+                }
+                out.println("    }");
+                out.println();
+                out.println("    @Override");
+                out.println("    public Class<? extends " + EVENT + "> getEventClass(Class<?> handlerClass) {");
+                out.println("        return EVENT_CLASSES.get(handlerClass);");
+                out.println("    }");
+                out.println();
+                out.println("    @Override");
+                out.println("    public " + PKG + "SubscriberMethod[] getSubscriberMethods(Class<?> targetClass) {");
+                out.println("        " + PKG + "SubscriberMethod[] methods = SUBSCRIBERS.get(targetClass);");
+                out.println("        return methods == null ? null : methods.clone();");
+                out.println("    }");
+                out.println("}");
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Can not write subscriber index " + name + ": " + ex.getMessage());
+        }
+    }
+
+    private void writeServices() {
+        if (written.isEmpty()) {
+            return;
+        }
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE);
+            try (Writer out = file.openWriter()) {
+                for (String pkg : written) {
+                    out.write(pkg + "." + INDEX_NAME + "\n");
+                }
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Can not write " + SERVICE + ": " + ex.getMessage());
+        }
+    }
+
+    private static final class PackageIndex {
+
+        final String pkg;
+
+        final Map<String, String> handlers = new LinkedHashMap<>();
+
+        final Map<String, List<Method>> subscribers = new LinkedHashMap<>();
+
+        PackageIndex(String pkg) {
+            this.pkg = pkg;
+        }
+
+        boolean isEmpty() {
+            return handlers.isEmpty() && subscribers.isEmpty();
+        }
+    }
+
+    private static final class Method {
+
+        final String declaringClass;
+
+        final String name;
+
+        final String eventClass;
+
+        final boolean subtypes;
+
+        Method(String declaringClass, String name, String eventClass, boolean subtypes) {
+            this.declaringClass = declaringClass;
+            this.name = name;
+            this.eventClass = eventClass;
+            this.subtypes = subtypes;
+        }
+    }
+}
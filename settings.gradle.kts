@@ -1 +1,3 @@
-rootProject.name = "minibus"
\ No newline at end of file
+rootProject.name = "minibus"
+
+include("processor")
@@ -0,0 +1,18 @@
+package io.github.jneat.minibus.jmh;
+
+import io.github.jneat.minibus.EventBusEvent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark event. Handlers increment {@link #handled} so producers can see how far
+ * the bus is behind them.
+ */
+public class BenchEvent implements EventBusEvent {
+
+    final AtomicLong handled;
+
+    public BenchEvent(AtomicLong handled) {
+        this.handled = handled;
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.jneat.minibus.jmh;
+
+import io.github.jneat.minibus.EventBusEvent;
+import io.github.jneat.minibus.EventBusHandler;
+
+/**
+ * Handlers used by benchmarks. Both do the same work, they differ only in how the bus selects them.
+ */
+final class BenchHandlers {
+
+    private BenchHandlers() {
+    }
+
+    static EventBusHandler<?> create(String kind) {
+        switch (kind) {
+            case "linked":
+                return new Linked();
+            case "wildcard":
+                return new Wildcard();
+            default:
+                throw new IllegalArgumentException("Unknown handler kind " + kind);
+        }
+    }
+
+    /**
+     * Handler linked to event class, selected by class lookup.
+     */
+    static class Linked extends EventBusHandler<BenchEvent> {
+
+        @Override
+        public void handle(BenchEvent event) {
+            event.handled.incrementAndGet();
+        }
+    }
+
+    /**
+     * Handler selected by {@link EventBusHandler#canHandle} call.
+     */
+    static class Wildcard extends EventBusHandler<EventBusEvent> {
+
+        @Override
+        protected Class<EventBusEvent> getLinkedClass() {
+            return null;
+        }
+
+        @Override
+        public boolean canHandle(Class<? extends EventBusEvent> cls) {
+            return cls == BenchEvent.class;
+        }
+
+        @Override
+        public void handle(EventBusEvent event) {
+            ((BenchEvent) event).handled.incrementAndGet();
+        }
+    }
+}
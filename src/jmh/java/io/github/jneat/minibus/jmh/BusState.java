@@ -0,0 +1,90 @@
+package io.github.jneat.minibus.jmh;
+
+import io.github.jneat.minibus.EventBus;
+import io.github.jneat.minibus.EventBusAsync;
+import io.github.jneat.minibus.EventBusEvent;
+import io.github.jneat.minibus.EventBusHandler;
+import io.github.jneat.minibus.EventBusRing;
+import io.github.jneat.minibus.EventBusSimple;
+import io.github.jneat.minibus.WaitStrategy;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared bus with subscribed handlers. Handlers are kept here because bus holds only weak links.
+ */
+@State(Scope.Benchmark)
+public class BusState {
+
+    @Param({"simple", "async", "ring"})
+    public String bus;
+
+    @Param({"1", "10", "1000"})
+    public int handlers;
+
+    @Param({"linked", "wildcard"})
+    public String kind;
+
+    EventBus<EventBusEvent, EventBusHandler<?>> eventBus;
+
+    private ExecutorService executor;
+
+    private final List<EventBusHandler<?>> subscribed = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        eventBus = createBus(bus);
+        for (int i = 0; i < handlers; i++) {
+            EventBusHandler<?> h = BenchHandlers.create(kind);
+            subscribed.add(h);
+            eventBus.subscribe(h);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() throws InterruptedException {
+        while (eventBus.hasPendingEvents()) {
+            Thread.sleep(1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        for (EventBusHandler<?> h : subscribed) {
+            eventBus.unsubscribe(h);
+        }
+        subscribed.clear();
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    EventBus<EventBusEvent, EventBusHandler<?>> createBus(String type) {
+        switch (type) {
+            case "simple":
+                return new EventBusSimple<>();
+            case "async":
+                executor = Executors.newCachedThreadPool();
+                return new EventBusAsync<>(executor);
+            case "async-spin":
+                executor = Executors.newCachedThreadPool();
+                return new EventBusAsync<>(executor, WaitStrategy.spinYieldPark(10_000, 100));
+            case "ring":
+                executor = Executors.newCachedThreadPool();
+                return new EventBusRing<>(1 << 14, executor);
+            default:
+                throw new IllegalArgumentException("Unknown bus type " + type);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package io.github.jneat.minibus.jmh;
+
+import io.github.jneat.minibus.EventBus;
+import io.github.jneat.minibus.EventBusEvent;
+import io.github.jneat.minibus.EventBusHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end latency: time between publish call and the moment single handler finished with event.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LatencyBenchmark {
+
+    @Param({"simple", "async", "async-spin", "ring"})
+    public String bus;
+
+    @Param({"linked", "wildcard"})
+    public String kind;
+
+    private final BusState factory = new BusState();
+
+    private EventBus<EventBusEvent, EventBusHandler<?>> eventBus;
+
+    private EventBusHandler<?> handler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        eventBus = factory.createBus(bus);
+        handler = BenchHandlers.create(kind);
+        eventBus.subscribe(handler);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        eventBus.unsubscribe(handler);
+        factory.tearDown();
+    }
+
+    @Benchmark
+    public void publishToHandler(ProducerState ps) {
+        eventBus.publish(ps.event);
+        ps.published(1);
+        ps.awaitHandled();
+    }
+}
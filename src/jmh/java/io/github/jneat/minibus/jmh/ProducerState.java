@@ -0,0 +1,53 @@
+package io.github.jneat.minibus.jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per producer thread state. Tracks how many handler calls are still in flight for events
+ * published by this thread, so async bus queue can not grow without limit during measurement.
+ */
+@State(Scope.Thread)
+public class ProducerState {
+
+    static final long MAX_IN_FLIGHT = 1 << 16;
+
+    final AtomicLong handled = new AtomicLong();
+
+    final BenchEvent event = new BenchEvent(handled);
+
+    final List<BenchEvent> batch = Collections.nCopies(100, event);
+
+    long expected;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        handled.set(0);
+        expected = 0;
+    }
+
+    /**
+     * Account published event and wait while too many handler calls are pending.
+     */
+    void published(int handlers) {
+        expected += handlers;
+        while (expected - handled.get() > MAX_IN_FLIGHT) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Wait until every published event was handled.
+     */
+    void awaitHandled() {
+        while (handled.get() < expected) {
+            Thread.onSpinWait();
+        }
+    }
+}
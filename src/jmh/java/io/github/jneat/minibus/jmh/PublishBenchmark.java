@@ -0,0 +1,51 @@
+package io.github.jneat.minibus.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sustained publish throughput, measured with a bounded number of in-flight handler calls
+ * so async bus throughput includes dispatching and handler execution, not only enqueueing.
+ * <p>
+ * Covers fan-out to 1/10/1000 handlers and class-linked vs canHandle handlers through
+ * {@link BusState} parameters.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PublishBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public void singleProducer(BusState bs, ProducerState ps) {
+        bs.eventBus.publish(ps.event);
+        ps.published(bs.handlers);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void multiProducer(BusState bs, ProducerState ps) {
+        bs.eventBus.publish(ps.event);
+        ps.published(bs.handlers);
+    }
+
+    /**
+     * Same as {@link #singleProducer} but publishing batches of 100 events, score is batches per second.
+     */
+    @Benchmark
+    @Threads(1)
+    public void singleProducerBatch(BusState bs, ProducerState ps) {
+        bs.eventBus.publishAll(ps.batch);
+        ps.published(bs.handlers * ps.batch.size());
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.jneat.minibus.jmh;
+
+import io.github.jneat.minibus.EventBusHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subscribe/unsubscribe churn against a bus that already has {@link BusState#handlers} subscribers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscriptionBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public void subscribeUnsubscribe(BusState bs) {
+        EventBusHandler<?> h = BenchHandlers.create(bs.kind);
+        bs.eventBus.subscribe(h);
+        bs.eventBus.unsubscribe(h);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void subscribeUnsubscribeContended(BusState bs) {
+        EventBusHandler<?> h = BenchHandlers.create(bs.kind);
+        bs.eventBus.subscribe(h);
+        bs.eventBus.unsubscribe(h);
+    }
+}
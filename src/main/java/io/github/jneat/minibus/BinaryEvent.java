@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Flyweight over binary message stored in {@link EventBusBinary} ring slot. Message has type and payload of given
+ * length, payload is read and written in place by absolute index, so no objects are created per message.
+ * <p>
+ * Flyweight returned by {@link EventBusBinary#claim} is reused by the publishing thread, it must be committed or
+ * aborted before next claim. It refers to the bus only while slot is claimed, so idle flyweight kept by long-lived
+ * publishing thread does not keep closed bus and its ring reachable. Flyweight passed to handler is valid only during handler call, handler must copy
+ * data it wants to keep.
+ */
+public final class BinaryEvent implements EventBusEvent {
+
+    private EventBusBinary owner;
+
+    ByteBuffer slot;
+
+    long sequence;
+
+    private int type;
+
+    private int length;
+
+    void wrap(EventBusBinary owner, ByteBuffer slot, long sequence, int type, int length) {
+        this.owner = owner;
+        this.slot = slot;
+        this.sequence = sequence;
+        this.type = type;
+        this.length = length;
+    }
+
+    void unwrap() {
+        this.owner = null;
+        this.slot = null;
+    }
+
+    /**
+     * @return Message type given by publisher
+     */
+    public int type() {
+        return type;
+    }
+
+    /**
+     * @return Payload length in bytes
+     */
+    public int length() {
+        return length;
+    }
+
+    public byte getByte(int index) {
+        return slot.get(at(index, Byte.BYTES));
+    }
+
+    public short getShort(int index) {
+        return slot.getShort(at(index, Short.BYTES));
+    }
+
+    public int getInt(int index) {
+        return slot.getInt(at(index, Integer.BYTES));
+    }
+
+    public long getLong(int index) {
+        return slot.getLong(at(index, Long.BYTES));
+    }
+
+    public double getDouble(int index) {
+        return slot.getDouble(at(index, Double.BYTES));
+    }
+
+    public void getBytes(int index, byte[] dst, int offset, int count) {
+        slot.position(at(index, count));
+        slot.get(dst, offset, count);
+    }
+
+    public BinaryEvent putByte(int index, byte value) {
+        slot.put(at(index, Byte.BYTES), value);
+        return this;
+    }
+
+    public BinaryEvent putShort(int index, short value) {
+        slot.putShort(at(index, Short.BYTES), value);
+        return this;
+    }
+
+    public BinaryEvent putInt(int index, int value) {
+        slot.putInt(at(index, Integer.BYTES), value);
+        return this;
+    }
+
+    public BinaryEvent putLong(int index, long value) {
+        slot.putLong(at(index, Long.BYTES), value);
+        return this;
+    }
+
+    public BinaryEvent putDouble(int index, double value) {
+        slot.putDouble(at(index, Double.BYTES), value);
+        return this;
+    }
+
+    public BinaryEvent putBytes(int index, byte[] src, int offset, int count) {
+        slot.position(at(index, count));
+        slot.put(src, offset, count);
+        return this;
+    }
+
+    /**
+     * Make claimed message available to handlers.
+     */
+    public void commit() {
+        claimed().commit(this, false);
+    }
+
+    /**
+     * Release claimed message without delivering it.
+     */
+    public void abort() {
+        claimed().commit(this, true);
+    }
+
+    private EventBusBinary claimed() {
+        if (owner == null || slot == null) {
+            throw new IllegalStateException("Message is not claimed");
+        }
+        return owner;
+    }
+
+    /**
+     * @return Slot index of payload field
+     */
+    private int at(int index, int size) {
+        Objects.checkFromIndexSize(index, size, length);
+        return EventBusBinary.HEADER_SIZE + index;
+    }
+}
@@ -23,12 +23,19 @@
  */
 package io.github.jneat.minibus;
 
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
 
 /**
  * Generic event bus interface.
  * I assume that there can be several possible implementations with different approach to
  * event/threads handling.
+ * <p>
+ * Buses that can be closed do not throw on publishing after close. Such event is dropped: its failure callback is
+ * called with null handler and {@link java.util.concurrent.RejectedExecutionException}, and future returned by
+ * {@link #publishAsync} completes exceptionally with it. Events a bus had to drop for other reasons (full queue,
+ * close timeout) are reported the same way.
  */
 public interface EventBus<E extends EventBusEvent, H extends EventBusHandler<?>> {
 
@@ -42,6 +49,17 @@ public interface EventBus<E extends EventBusEvent, H extends EventBusHandler<?>>
      */
     void subscribe(H subscriber);
 
+    /**
+     * Subscribe consumer and optionally deliver to it the latest sticky events it can handle.
+     * Default implementation keeps no sticky events, so it just subscribes consumer.
+     *
+     * @param subscriber The object to subscribe to the event bus.
+     * @param sticky     Deliver cached events published with {@link #publishSticky}
+     */
+    default void subscribe(H subscriber, boolean sticky) {
+        subscribe(subscriber);
+    }
+
     /**
      * Removes the specified consumer from the event bus subscription list.
      * Once removed, the specified object will no longer receive events posted to the
@@ -66,7 +84,7 @@ public interface EventBus<E extends EventBusEvent, H extends EventBusHandler<?>>
      *
      * @param event Event to publish
      * @param success Callback on success or null
-     * @param failure Callback on error or null
+     * @param failure Callback on error or null, handler is null if event was dropped without calling handlers
      */
     void publish(
         E event,
@@ -74,6 +92,100 @@ public interface EventBus<E extends EventBusEvent, H extends EventBusHandler<?>>
         FailureConsumer<E, H> failure
     );
 
+    /**
+     * Publish event and keep it as the latest event of its class. Handlers subscribed later with
+     * {@link #subscribe(EventBusHandler, boolean)} receive it right away. Number of kept event classes is limited,
+     * least recently used class is evicted.
+     * <p>
+     * Default implementation keeps no sticky events, so it just publishes event.
+     *
+     * @param event Event to publish
+     */
+    default void publishSticky(E event) {
+        publish(event);
+    }
+
+    /**
+     * @return The latest sticky event of exact class or null
+     */
+    default <T extends E> T getStickyEvent(Class<T> cls) {
+        return null;
+    }
+
+    /**
+     * Forget the latest sticky event of exact class.
+     *
+     * @return Removed event or null
+     */
+    default <T extends E> T removeStickyEvent(Class<T> cls) {
+        return null;
+    }
+
+    /**
+     * Sends a event (message) to the bus and returns future that is completed when every handler of the event has
+     * finished, with handlers that succeeded and errors of handlers that failed. Future completes with empty result
+     * if there are no matching handlers or event is null, and completes exceptionally with
+     * {@link java.util.concurrent.RejectedExecutionException} if bus drops the event.
+     * <p>
+     * Default implementation publishes event with collecting callbacks and completes future once
+     * {@link #countHandlers} callbacks have arrived. As the last resort for bus that can't count handlers, future is
+     * completed once polled {@link #hasPendingEvents()} returns false, so it waits for other events of the bus as well
+     * and may never complete under sustained load. Such bus should override this method.
+     *
+     * @param event Event to publish
+     * @return Future of handlers results
+     */
+    default CompletableFuture<PublishResult<E, H>> publishAsync(E event) {
+        int handlers = event == null ? 0 : countHandlers(event);
+        if (handlers < 0) {
+            return PublishTracker.whenIdle(this, event);
+        }
+        return PublishTracker.whenCalledBack(this, event, handlers);
+    }
+
+    /**
+     * Number of handlers the bus is going to call for the event, each of them reports to success or failure callback
+     * exactly once. Used by default {@link #publishAsync}, so count must not change between this call and dispatching
+     * of the event, otherwise future completes too early or never.
+     * <p>
+     * Default implementation can't count handlers.
+     *
+     * @param event Event to publish
+     * @return Handlers count or -1 if bus can't count them
+     */
+    default int countHandlers(E event) {
+        return -1;
+    }
+
+    /**
+     * Sends several events to the bus at once. Implementations can process batch cheaper than
+     * calling {@link #publish(EventBusEvent)} for each event. Events are published in collection iteration order,
+     * null events are skipped.
+     *
+     * @param events Events to publish
+     */
+    default void publishAll(Collection<? extends E> events) {
+        publishAll(events, null, null);
+    }
+
+    /**
+     * Sends several events to the bus at once with callbacks shared by all events of the batch.
+     *
+     * @param events  Events to publish
+     * @param success Callback on success or null
+     * @param failure Callback on error or null
+     * @see #publishAll(Collection)
+     */
+    default void publishAll(
+        Collection<? extends E> events,
+        BiConsumer<E, H> success,
+        FailureConsumer<E, H> failure
+    ) {
+        for (E event : events) {
+            publish(event, success, failure);
+        }
+    }
+
     /**
      * Indicates whether the bus has pending events to publish. Since message/event
      * delivery can be asynchronous (on other threads), the method can be used to
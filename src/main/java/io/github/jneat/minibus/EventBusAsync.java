@@ -26,41 +26,144 @@ package io.github.jneat.minibus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Queue;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.BiConsumer;
 
 /**
  * Async event bus that will run each event/handler call in separate thread. By default using CachedThreadPool to run
  * handlers.
+ * <p>
+ * Events are dispatched by single background thread. What this thread does while there are no events is defined by
+ * {@link WaitStrategy}, publishers wake it up only if it is parked.
+ * <p>
+ * Single dispatcher thread can be a bottleneck. With {@link EventBusAsyncConfig#dispatchers} events are spread
+ * between several dispatcher lanes, each with own queue and thread. Lane is chosen by
+ * {@link EventBusEvent#partitionKey()}, so events with the same key are dispatched in publishing order.
+ * <p>
+ * With {@link EventBusAsyncConfig#orderedHandlers} each handler receives events one by one in dispatching order
+ * through own mailbox, instead of running concurrently with itself.
+ * <p>
+ * {@link EventBusBatchHandler} receives events in groups, bus buffers events per handler up to batch size or linger
+ * time.
+ * <p>
+ * With {@link EventBusAsyncConfig#conflation} only the latest event is delivered for each
+ * {@link EventBusEvent#conflationKey()}, newer event replaces older one with the same class and key if the older one
+ * was not dispatched yet.
+ * <p>
+ * By default events queue is unbounded. It can be limited with {@link EventBusAsyncConfig#capacity}, in this case
+ * {@link OverflowPolicy} defines what happens when queue is full and {@link #offer} reports whether event was accepted.
+ * <p>
+ * Queue latency, handler execution time and drops are reported to {@link EventBusAsyncConfig#metrics} listener.
+ * Publishing, dispatching and handler calls are also recorded as Java Flight Recorder events when they are enabled.
+ * <p>
+ * With {@link EventBusAsyncConfig#handlerTimeout} watchdog reports handlers that run longer than allowed and can fail
+ * such events with {@link TimeoutException}.
+ * <p>
+ * Bus counts events that are queued, being dispatched or handled, so {@link #awaitQuiescence} can wait until all
+ * published work is done. {@link #close} stops accepting events, drains the queue and stops bus threads.
  */
-public class EventBusAsync<E extends EventBusEvent, H extends EventBusHandler<?>> implements EventBus<E, H> {
+public class EventBusAsync<E extends EventBusEvent, H extends EventBusHandler<?>> implements EventBus<E, H>, AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(EventBusAsync.class);
 
-    private final Queue<EventWrapper<E, H>> eventsQueue = new ConcurrentLinkedQueue<>();
-
-    private final ReferenceQueue<H> gcQueue = new ReferenceQueue<>();
+    /**
+     * How many events mailbox handles in a row before giving executor thread to other tasks.
+     */
+    private static final int MAILBOX_THROUGHPUT = 64;
 
-    private final Map<Class<?>, Set<WeakHandler<H>>> handlersCls = new ConcurrentHashMap<>();
+    /**
+     * How many idle handler tasks each dispatcher lane keeps for reuse.
+     */
+    private static final int TASK_POOL_SIZE = 1024;
 
-    private final Set<WeakHandler<H>> handlers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final HandlersRegistry<H> registry = new HandlersRegistry<>();
 
     private final ExecutorService handlersExecutor;
 
+    private final boolean ownExecutor;
+
+    /**
+     * Handler calls go through {@link #submitHandler} only if subclass overrides it, otherwise they are passed to
+     * executor without wrapping event.
+     */
+    private final boolean customSubmit;
+
+    private final WaitStrategy waitStrategy;
+
+    private final int capacity;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final long blockTimeoutNanos;
+
+    private final boolean orderedHandlers;
+
+    /**
+     * Mailboxes and batch buffers by handler identity. Handler subscribed again gets new link, but keeps its mailbox,
+     * so it still never runs concurrently with itself. Links cache them in attachment.
+     */
+    private final Map<WeakIdentityKey, Object> handlerQueues = new HashMap<>();
+
+    private final ReferenceQueue<Object> collectedHandlers = new ReferenceQueue<>();
+
+    private final Lane[] lanes;
+
+    private final Map<ConflationKey, EventWrapper<E, H>> conflated;
+
+    private final EventBusMetrics metrics;
+
+    private final StickyEvents<E> sticky;
+
+    private final long handlerTimeoutNanos;
+
+    private final boolean failOnTimeout;
+
+    /**
+     * Queue entries, running publish calls and scheduled handler calls.
+     */
+    private final AtomicLong inFlight = new AtomicLong();
+
+    private final Queue<Thread> quiescenceWaiters = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean closed;
+
+    private final Object timerLock = new Object();
+
+    private volatile ScheduledExecutorService timer;
+
     /**
      * CAN OVERRIDE THIS METHOD. If you need to add some weirdo filters to events right before handler will be submitted
-     * to executor.
+     * to executor. Not used with ordered handlers, events are put to handler mailbox instead. Accepted events must be
+     * passed to this method of super class, it counts them as in flight until handler finishes. Exception thrown here,
+     * e.g. when executor rejects the call, is passed to event failure callback.
      */
     protected void submitHandler(H h, EventWrapper<E, H> ew) {
-        handlersExecutor.submit(() -> runHandlerWrapper(h, ew));
+        execute(h, ew.event, ew.success, ew.failure);
     }
 
     /**
@@ -70,11 +173,35 @@ public class EventBusAsync<E extends EventBusEvent, H extends EventBusHandler<?>
         h.handleEvent(e);
     }
 
+    /**
+     * CAN OVERRIDE THIS METHOD. This executes in separate thread, passing events batch to batch handler
+     */
+    protected void runBatchHandler(EventBusBatchHandler<?> h, List<E> events) throws Throwable {
+        h.handleEvents(events);
+    }
+
+    /**
+     * CAN OVERRIDE THIS METHOD. Called when bounded queue is full and event is dropped according to overflow policy,
+     * or when event is replaced by newer one with the same conflation key. Failure callback of dropped event is called
+     * too, with null handler and {@link RejectedExecutionException}.
+     */
+    protected void eventDropped(E event) {
+        logger.debug("Event queue is full, {} dropped", event.getClass().getSimpleName());
+    }
+
+    /**
+     * CAN OVERRIDE THIS METHOD. Called by watchdog thread once handler exceeds its timeout. Exception stack trace is
+     * the stack of thread running the handler.
+     */
+    protected void handlerTimedOut(H h, E event, TimeoutException ex) {
+        logger.warn("Handler {} is too slow on event {}. {}", h.getClass().getSimpleName(), event.getClass().getSimpleName(), ex.getMessage(), ex);
+    }
+
     /**
      * Create new EventBus instance with default presets.
      */
     public EventBusAsync() {
-        this(Executors.newCachedThreadPool());
+        this(new EventBusAsyncConfig());
     }
 
     /**
@@ -83,38 +210,105 @@ public class EventBusAsync<E extends EventBusEvent, H extends EventBusHandler<?>
      * @param handlersExecutor Will be used to run event handler processing for each event
      */
     public EventBusAsync(ExecutorService handlersExecutor) {
-        this.handlersExecutor = handlersExecutor;
-        Thread eventQueueThread = new Thread(this::eventsQueue, "EventQueue handlers thread");
-        eventQueueThread.setDaemon(true);
-        eventQueueThread.start();
+        this(new EventBusAsyncConfig().handlersExecutor(handlersExecutor));
+    }
+
+    /**
+     * Create instance with customer ExecutorService for event handlers and custom dispatcher wait strategy.
+     *
+     * @param handlersExecutor Will be used to run event handler processing for each event
+     * @param waitStrategy     Defines how dispatcher thread waits for new events
+     */
+    public EventBusAsync(ExecutorService handlersExecutor, WaitStrategy waitStrategy) {
+        this(new EventBusAsyncConfig().handlersExecutor(handlersExecutor).waitStrategy(waitStrategy));
+    }
+
+    /**
+     * Create instance with custom settings.
+     *
+     * @param config Bus settings
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public EventBusAsync(EventBusAsyncConfig config) {
+        this.handlersExecutor = config.handlersExecutor == null ? Executors.newCachedThreadPool() : config.handlersExecutor;
+        this.ownExecutor = config.handlersExecutor == null;
+        this.customSubmit = overridesSubmitHandler(getClass());
+        this.waitStrategy = config.waitStrategy;
+        this.capacity = config.capacity;
+        this.overflowPolicy = config.overflowPolicy;
+        this.blockTimeoutNanos = config.blockTimeoutNanos;
+        this.orderedHandlers = config.orderedHandlers;
+        this.metrics = config.metrics;
+        this.handlerTimeoutNanos = config.handlerTimeoutNanos;
+        this.failOnTimeout = config.failOnTimeout;
+        this.sticky = new StickyEvents<>(config.stickyCapacity);
+        if (orderedHandlers && capacity > 0 && overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+            throw new IllegalArgumentException("Ordered handlers can not be combined with CALLER_RUNS overflow policy");
+        }
+        this.conflated = config.conflation ? new ConcurrentHashMap<>() : null;
+        this.lanes = (Lane[]) new EventBusAsync.Lane[config.dispatchers];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(lanes.length == 1 ? "EventQueue handlers thread" : "EventQueue handlers thread-" + i);
+        }
+    }
+
+    private static boolean overridesSubmitHandler(Class<?> cls) {
+        for (Class<?> c = cls; c != EventBusAsync.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("submitHandler", EventBusHandler.class, EventWrapper.class);
+                return true;
+            } catch (NoSuchMethodException ex) {
+                // Look at superclass
+            }
+        }
+        return false;
     }
 
     @Override
     public void subscribe(H subscriber) {
-        Class<? extends EventBusEvent> cls = subscriber.getLinkedClass();
-        if (cls == null) {
-            handlers.add(new WeakHandler<>(subscriber, gcQueue));
-        } else {
-            synchronized (this) {
-                Set<WeakHandler<H>> hs = handlersCls.computeIfAbsent(cls, k -> Collections.newSetFromMap(new ConcurrentHashMap<>()));
-                hs.add(new WeakHandler<>(subscriber, gcQueue));
+        registry.subscribe(subscriber);
+    }
+
+    /**
+     * Sticky events are dispatched to new subscriber the same way as published ones, but only to this subscriber.
+     * Sticky event published concurrently can reach subscriber before older cached one.
+     */
+    @Override
+    public void subscribe(H subscriber, boolean sticky) {
+        registry.subscribe(subscriber);
+        if (sticky) {
+            for (E event : this.sticky.snapshot()) {
+                WeakHandler<H> wh = registry.find(event.getClass(), subscriber);
+                if (wh != null) {
+                    callHandler(wh, subscriber, event, null, null, false);
+                }
             }
         }
     }
 
     @Override
     public void unsubscribe(H subscriber) {
-        Class<?> cls = subscriber.getLinkedClass();
-        if (cls == null) {
-            handlers.remove(new WeakHandler<>(subscriber, gcQueue));
-        } else {
-            Set<WeakHandler<H>> set = handlersCls.get(cls);
-            if (set != null) {
-                set.remove(new WeakHandler<>(subscriber, gcQueue));
-            }
+        registry.unsubscribe(subscriber);
+    }
+
+    @Override
+    public void publishSticky(E event) {
+        if (event != null) {
+            sticky.put(event);
+            publish(event);
         }
     }
 
+    @Override
+    public <T extends E> T getStickyEvent(Class<T> cls) {
+        return sticky.get(cls);
+    }
+
+    @Override
+    public <T extends E> T removeStickyEvent(Class<T> cls) {
+        return sticky.remove(cls);
+    }
+
     @Override
     public void publish(E event) {
         publish(event, null, null);
@@ -122,85 +316,1237 @@ public class EventBusAsync<E extends EventBusEvent, H extends EventBusHandler<?>
 
     @Override
     public void publish(E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        offer(event, success, failure);
+    }
+
+    /**
+     * Future is completed by the last handler callback, or by dispatcher if there are no handlers to run.
+     */
+    @Override
+    public CompletableFuture<PublishResult<E, H>> publishAsync(E event) {
+        PublishTracker<E, H> tracker = new PublishTracker<>(event);
         if (event == null) {
-            return;
+            PublishTracker.dispatched(tracker);
+        } else {
+            offer(event, tracker, tracker);
         }
-        eventsQueue.add(new EventWrapper<>(event, success, failure));
-        synchronized (eventsQueue) {
-            eventsQueue.notifyAll();
+        return tracker.future();
+    }
+
+    /**
+     * Same as {@link #publish(EventBusEvent)}, but reports whether event was accepted.
+     *
+     * @param event Event to publish
+     * @return False if event is null or was dropped because bounded queue is full
+     */
+    public boolean offer(E event) {
+        return offer(event, null, null);
+    }
+
+    /**
+     * Same as {@link #publish(EventBusEvent, BiConsumer, FailureConsumer)}, but reports whether event was accepted.
+     * Event handled in publisher thread with {@link OverflowPolicy#CALLER_RUNS} counts as accepted.
+     *
+     * @param event   Event to publish
+     * @param success Callback on success or null
+     * @param failure Callback on error or null
+     * @return False if event is null or was dropped because bounded queue is full
+     */
+    public boolean offer(E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        if (event == null) {
+            return false;
+        }
+        busy(1);
+        try {
+            if (closed) {
+                dropped(new EventWrapper<>(event, success, failure));
+                return false;
+            }
+            reportPublished(event);
+            long publishedNanos = publishedNanos();
+            Object key = conflated == null ? null : event.conflationKey();
+            if (success == null && failure == null && publishedNanos == 0 && key == null) {
+                // Nothing to carry along with event, it is queued as is
+                return lane(event).offer(event);
+            }
+            EventWrapper<E, H> ew = new EventWrapper<>(event, success, failure);
+            ew.publishedNanos = publishedNanos;
+            if (key != null) {
+                return offerConflated(new ConflationKey(event.getClass(), key), ew);
+            }
+            return lane(event).offer(ew);
+        } finally {
+            idle(1);
         }
     }
 
-    @Override
-    public boolean hasPendingEvents() {
-        return !eventsQueue.isEmpty();
+    /**
+     * Store event as the latest one for its key. Only the first pending event of the key puts a token to the queue,
+     * and dispatcher takes the latest event for the key when it reaches token.
+     */
+    private boolean offerConflated(ConflationKey key, EventWrapper<E, H> ew) {
+        EventWrapper<E, H> prev = conflated.put(key, ew);
+        if (prev != null) {
+            discard(prev.event);
+            rejected(prev.event, prev.success, prev.failure, "was replaced by newer event with the same conflation key");
+            return true;
+        }
+        return lane(ew.event).offer(new Conflated<>(key));
     }
 
-    private void eventsQueue() {
-        while (true) {
-            WeakHandler<?> wh;
-            while ((wh = (WeakHandler<?>) gcQueue.poll()) != null) {
-                Class<?> cls = wh.getHandlerTypeClass();
-                if (cls == null) {
-                    handlers.remove(wh);
-                } else {
-                    Set<WeakHandler<H>> set = handlersCls.get(cls);
-                    if (set != null) {
-                        set.remove(wh);
-                    }
+    /**
+     * Batch is put to dispatcher queue as single entry (one per lane if there are several dispatchers), and handlers
+     * are looked up once per event class in the batch. If bounded queue has no room for whole batch, events are
+     * offered one by one according to overflow policy.
+     */
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void publishAll(Collection<? extends E> events, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        List<E>[] parts = new List[lanes.length];
+        busy(1);
+        try {
+            for (E event : events) {
+                if (event == null) {
+                    continue;
+                }
+                if (closed || conflated != null && event.conflationKey() != null) {
+                    offer(event, success, failure);
+                    continue;
+                }
+                reportPublished(event);
+                int idx = laneIndex(event);
+                if (parts[idx] == null) {
+                    parts[idx] = new ArrayList<>(lanes.length == 1 ? events.size() : 16);
+                }
+                parts[idx].add(event);
+            }
+            for (int i = 0; i < lanes.length; i++) {
+                if (parts[i] != null) {
+                    lanes[i].offerAll(parts[i], success, failure);
                 }
             }
+        } finally {
+            idle(1);
+        }
+    }
 
-            if (eventsQueue.isEmpty()) {
-                synchronized (eventsQueue) {
-                    try {
-                        eventsQueue.wait();
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
+    /**
+     * Unlike queue check this also sees events that are being dispatched and handlers that still run.
+     */
+    @Override
+    public boolean hasPendingEvents() {
+        return inFlight.get() > 0;
+    }
+
+    /**
+     * Wait until all published events are dispatched and all handlers scheduled for them have finished, including
+     * events buffered for batch handlers. Waiting thread is parked and woken up by the last finished handler.
+     *
+     * @return False if timeout elapsed before bus became idle
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+        long timeoutNanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + timeoutNanos;
+        Thread current = Thread.currentThread();
+        quiescenceWaiters.add(current);
+        try {
+            while (inFlight.get() > 0) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
                 }
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, left);
             }
+            return true;
+        } finally {
+            quiescenceWaiters.remove(current);
+        }
+    }
 
-            EventWrapper<E, H> ew = eventsQueue.poll();
-            if (ew != null && ew.event != null) {
-                notifySubscribers(ew);
+    /**
+     * Stop accepting events, wait until already published events are handled and stop dispatcher threads, timer and
+     * handlers executor if it was created by the bus. Waits without limit, use {@link #close(long, TimeUnit)} if
+     * handlers can get stuck.
+     */
+    @Override
+    public void close() {
+        close(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop accepting events, wait until already published events are handled and stop dispatcher threads, timer and
+     * handlers executor if it was created by the bus. Events published after close are dropped. Events that were not
+     * dispatched before timeout are dropped too.
+     *
+     * @return False if timeout elapsed before all events were handled
+     */
+    public boolean close(long timeout, TimeUnit unit) {
+        closed = true;
+        boolean drained;
+        try {
+            drained = awaitQuiescence(timeout, unit);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        for (Lane lane : lanes) {
+            lane.stop();
+        }
+        ScheduledExecutorService t = timer;
+        if (t != null) {
+            t.shutdownNow();
+        }
+        if (ownExecutor) {
+            handlersExecutor.shutdown();
+        }
+        return drained;
+    }
+
+    private void busy(int count) {
+        inFlight.addAndGet(count);
+    }
+
+    /**
+     * Wake up threads waiting for quiescence when the last piece of work is done.
+     */
+    private void idle(int count) {
+        if (inFlight.addAndGet(-count) == 0 && !quiescenceWaiters.isEmpty()) {
+            for (Thread waiter : quiescenceWaiters) {
+                LockSupport.unpark(waiter);
             }
         }
     }
 
-    private void notifySubscribers(EventWrapper<E, H> ew) {
+    private Lane lane(E event) {
+        return lanes[laneIndex(event)];
+    }
+
+    private int laneIndex(E event) {
+        if (lanes.length == 1) {
+            return 0;
+        }
+        Object key = event.partitionKey();
+        int h = (key == null ? event.getClass() : key).hashCode();
+        return Math.floorMod(h ^ (h >>> 16), lanes.length);
+    }
+
+    /**
+     * Pass event to matching handlers.
+     *
+     * @param inPlace Run handlers in current thread instead of submitting them to executor
+     */
+    private void notifySubscribers(E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure, boolean inPlace) {
         try {
-            Set<WeakHandler<H>> hcls = handlersCls.get(ew.event.getClass());
+            WeakHandler<H>[] hcls = registry.linked(event.getClass());
             if (hcls != null) {
                 for (WeakHandler<H> wh : hcls) {
                     H eh = wh.get();
                     if (eh != null) {
-                        submitHandler(eh, ew);
+                        callHandler(wh, eh, event, success, failure, inPlace);
                     }
                 }
             }
 
-            for (WeakHandler<H> wh : handlers) {
+            for (WeakHandler<H> wh : registry.wildcards()) {
                 H eh = wh.get();
-                if (eh != null && eh.canHandle(ew.event.getClass())) {
-                    submitHandler(eh, ew);
+                if (eh != null && eh.canHandle(event.getClass())) {
+                    callHandler(wh, eh, event, success, failure, inPlace);
                 }
             }
         } catch (Throwable th) {
-            logger.error("Event processing fail {}. {}", ew.event.getClass().getSimpleName(), th.getMessage(), th);
+            logger.error("Event processing fail {}. {}", event.getClass().getSimpleName(), th.getMessage(), th);
+        } finally {
+            PublishTracker.dispatched(success);
+        }
+    }
+
+    /**
+     * Pass batch events to matching handlers, looking handlers up once per event class.
+     */
+    private void notifySubscribers(Batch<E, H> batch) {
+        Map<Class<?>, List<WeakHandler<H>>> resolved = new HashMap<>();
+        for (E event : batch.events) {
+            try {
+                for (WeakHandler<H> wh : resolved.computeIfAbsent(event.getClass(), this::findHandlers)) {
+                    H eh = wh.get();
+                    if (eh != null) {
+                        callHandler(wh, eh, event, batch.success, batch.failure, false);
+                    }
+                }
+            } catch (Throwable th) {
+                logger.error("Event processing fail {}. {}", event.getClass().getSimpleName(), th.getMessage(), th);
+            }
+        }
+    }
+
+    private List<WeakHandler<H>> findHandlers(Class<?> cls) {
+        List<WeakHandler<H>> found = new ArrayList<>();
+        WeakHandler<H>[] hcls = registry.linked(cls);
+        if (hcls != null) {
+            found.addAll(Arrays.asList(hcls));
+        }
+        for (WeakHandler<H> wh : registry.wildcards()) {
+            H eh = wh.get();
+            if (eh != null && eh.canHandle(cls.asSubclass(EventBusEvent.class))) {
+                found.add(wh);
+            }
+        }
+        return found;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void callHandler(WeakHandler<H> wh, H eh, E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure,
+            boolean inPlace) {
+        PublishTracker.expect(success);
+        if (inPlace) {
+            runHandlerWrapper(eh, event, success, failure);
+        } else if (eh instanceof EventBusBatchHandler) {
+            ((BatchBuffer) handlerQueue(wh, eh)).add(new EventWrapper<>(event, success, failure));
+        } else if (orderedHandlers) {
+            ((Mailbox) handlerQueue(wh, eh)).add(new EventWrapper<>(event, success, failure));
+        } else {
+            try {
+                if (customSubmit) {
+                    submitHandler(eh, new EventWrapper<>(event, success, failure));
+                } else {
+                    execute(eh, event, success, failure);
+                }
+            } catch (RuntimeException ex) {
+                logger.error("Handler {} was not scheduled for event {}. {}", eh.getClass().getSimpleName(), event.getClass().getSimpleName(), ex.getMessage(), ex);
+                notCalled(eh, event, success, failure, ex);
+            }
+        }
+    }
+
+    /**
+     * Batch buffer or mailbox of handler, taken from link attachment or shared by all links of the same handler.
+     */
+    private Object handlerQueue(WeakHandler<H> wh, H eh) {
+        Object queue = wh.getAttachment();
+        if (queue != null) {
+            return queue;
+        }
+        synchronized (handlerQueues) {
+            Reference<?> ref;
+            while ((ref = collectedHandlers.poll()) != null) {
+                handlerQueues.remove(ref);
+            }
+            queue = handlerQueues.get(new WeakIdentityKey(eh, null));
+            if (queue == null) {
+                queue = eh instanceof EventBusBatchHandler
+                        ? new BatchBuffer(wh, (EventBusBatchHandler<?>) eh)
+                        : new Mailbox(wh);
+                handlerQueues.put(new WeakIdentityKey(eh, collectedHandlers), queue);
+            }
+        }
+        return wh.attach(queue);
+    }
+
+    /**
+     * Pass handler call to executor. Dispatcher thread takes task from its lane pool, so steady dispatching does not
+     * allocate tasks.
+     */
+    private void execute(H eh, E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        HandlerTask task = null;
+        Thread current = Thread.currentThread();
+        for (Lane lane : lanes) {
+            if (lane.thread == current) {
+                task = lane.takeTask();
+                break;
+            }
+        }
+        if (task == null) {
+            task = new HandlerTask(null);
+        }
+        task.handler = eh;
+        task.event = event;
+        task.success = success;
+        task.failure = failure;
+        busy(1);
+        try {
+            handlersExecutor.execute(task);
+        } catch (RuntimeException ex) {
+            task.recycle();
+            idle(1);
+            throw ex;
+        }
+    }
+
+    /**
+     * Settle handler call that will never run. Event fails if executor rejected the call, or is just counted as
+     * handled by publish tracker if handler was garbage collected before its turn.
+     *
+     * @param eh Handler or null if it is gone
+     */
+    private void notCalled(H eh, E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure, RuntimeException ex) {
+        if (eh == null) {
+            PublishTracker.skipped(success);
+            return;
+        }
+        if (failure != null) {
+            try {
+                failure.accept(event, eh, ex);
+            } catch (Throwable th) {
+                logger.error("Failure callback fail for {}. {}", event.getClass().getSimpleName(), th.getMessage(), th);
+            }
+        }
+    }
+
+    /**
+     * Timer thread for batch linger and handlers watchdog, created on first use.
+     */
+    private ScheduledExecutorService timer() {
+        ScheduledExecutorService t = timer;
+        if (t == null) {
+            synchronized (timerLock) {
+                t = timer;
+                if (t == null) {
+                    ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(1, r -> {
+                        Thread thread = new Thread(r, "EventBus timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    stpe.setRemoveOnCancelPolicy(true);
+                    timer = t = stpe;
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Replace conflation token with the latest event for its key.
+     *
+     * @return Event to dispatch or null if there is nothing to dispatch
+     */
+    @SuppressWarnings("unchecked")
+    private EventWrapper<E, H> resolve(EventWrapper<E, H> ew) {
+        return ew instanceof Conflated ? conflated.remove(((Conflated<E, H>) ew).key) : ew;
+    }
+
+    /**
+     * Dispatch queue entry, it is either event itself or its wrapper.
+     *
+     * @param inPlace Run handlers in current thread instead of submitting them to executor
+     */
+    @SuppressWarnings("unchecked")
+    private void dispatch(Object entry, boolean inPlace) {
+        JfrEvents.DispatchEvent jfr = null;
+        if (entry instanceof Batch) {
+            jfr = dispatched((Batch<E, H>) entry);
+            notifySubscribers((Batch<E, H>) entry);
+        } else if (entry instanceof EventWrapper) {
+            EventWrapper<E, H> ew = resolve((EventWrapper<E, H>) entry);
+            if (ew != null && ew.event != null) {
+                jfr = dispatched(ew.event, ew.publishedNanos);
+                notifySubscribers(ew.event, ew.success, ew.failure, inPlace);
+            }
+        } else {
+            jfr = dispatched((E) entry, 0);
+            notifySubscribers((E) entry, null, null, inPlace);
+        }
+        if (jfr != null) {
+            JfrEvents.endDispatch(jfr);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dropped(Object entry) {
+        if (entry instanceof Batch) {
+            Batch<E, H> batch = (Batch<E, H>) entry;
+            for (E event : batch.events) {
+                discard(event);
+                rejected(event, batch.success, batch.failure, "was dropped");
+            }
+        } else if (entry instanceof EventWrapper) {
+            EventWrapper<E, H> ew = resolve((EventWrapper<E, H>) entry);
+            if (ew != null) {
+                discard(ew.event);
+                rejected(ew.event, ew.success, ew.failure, "was dropped");
+            }
+        } else {
+            discard((E) entry);
+        }
+    }
+
+    /**
+     * Report event that will never be dispatched to its failure callback, there is no handler in this case.
+     */
+    private void rejected(E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure, String reason) {
+        if (success instanceof PublishTracker) {
+            PublishTracker.rejected(success);
+        } else if (failure != null) {
+            try {
+                failure.accept(event, null, new RejectedExecutionException("Event " + event.getClass().getSimpleName() + " " + reason));
+            } catch (Throwable th) {
+                logger.error("Failure callback fail for {}. {}", event.getClass().getSimpleName(), th.getMessage(), th);
+            }
+        }
+    }
+
+    private void discard(E event) {
+        if (metrics != null) {
+            metrics.eventDropped(event.getClass());
+        }
+        eventDropped(event);
+    }
+
+    private void reportPublished(E event) {
+        if (metrics != null) {
+            metrics.eventPublished(event.getClass());
+        }
+        if (JfrEvents.AVAILABLE) {
+            JfrEvents.published(event.getClass());
+        }
+    }
+
+    /**
+     * Clock is read only if metrics or JFR dispatch events need publishing time.
+     */
+    private long publishedNanos() {
+        return metrics != null || JfrEvents.AVAILABLE && JfrEvents.isDispatchEnabled() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Report that event left the queue.
+     *
+     * @return JFR event to finish once handlers are notified or null
+     */
+    private JfrEvents.DispatchEvent dispatched(E event, long publishedNanos) {
+        if (metrics == null && !JfrEvents.AVAILABLE) {
+            return null;
+        }
+        long queued = publishedNanos == 0 ? -1 : System.nanoTime() - publishedNanos;
+        if (metrics != null) {
+            metrics.eventDispatched(event.getClass(), queued);
+        }
+        return JfrEvents.AVAILABLE ? JfrEvents.beginDispatch(event.getClass(), 1, queued) : null;
+    }
+
+    private JfrEvents.DispatchEvent dispatched(Batch<E, H> batch) {
+        if (metrics == null && !JfrEvents.AVAILABLE) {
+            return null;
+        }
+        long queued = batch.publishedNanos == 0 ? -1 : System.nanoTime() - batch.publishedNanos;
+        if (metrics != null) {
+            for (E event : batch.events) {
+                metrics.eventDispatched(event.getClass(), queued);
+            }
+        }
+        return JfrEvents.AVAILABLE
+                ? JfrEvents.beginDispatch(batch.events.get(0).getClass(), batch.events.size(), queued) : null;
+    }
+
+    private JfrEvents.HandlerEvent handlerStarted(H handler, E event, int count) {
+        return JfrEvents.AVAILABLE ? JfrEvents.beginHandler(handler.getClass(), event.getClass(), count) : null;
+    }
+
+    private void handlerCompleted(H handler, long start, JfrEvents.HandlerEvent jfr, boolean failed) {
+        if (metrics != null) {
+            metrics.handlerCompleted(handler.getClass(), System.nanoTime() - start, failed);
+        }
+        if (jfr != null) {
+            JfrEvents.endHandler(jfr, failed);
         }
     }
 
-    private void runHandlerWrapper(H handler, EventWrapper<E, H> ew) {
+    private void runHandlerWrapper(H handler, E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        JfrEvents.HandlerEvent jfr = handlerStarted(handler, event, 1);
+        HandlerCall call = watch(handler, event, failure);
+        boolean handled = false;
         try {
-            runHandler(handler, ew.event);
-            if (ew.success != null) {
-                ew.success.accept(ew.event, handler);
+            runHandler(handler, event);
+            handled = true;
+            handlerCompleted(handler, start, jfr, false);
+            if (success != null && (call == null || call.complete())) {
+                success.accept(event, handler);
             }
         } catch (Throwable th) {
-            logger.error("Handler {} fail on event {}. {}", handler.getClass().getSimpleName(), ew.event.getClass().getSimpleName(), th.getMessage(), th);
-            if (ew.failure != null) {
-                ew.failure.accept(ew.event, handler, th);
+            if (!handled) {
+                handlerCompleted(handler, start, jfr, true);
+            }
+            logger.error("Handler {} fail on event {}. {}", handler.getClass().getSimpleName(), event.getClass().getSimpleName(), th.getMessage(), th);
+            if (failure != null && (call == null || call.complete())) {
+                failure.accept(event, handler, th);
+            }
+        } finally {
+            if (call != null) {
+                call.complete();
+                call.timeout.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Schedule timeout of handler call if handler has execution timeout. Timeout task is cancelled once handler
+     * returns, so timer has no work while handlers finish in time.
+     *
+     * @return Running call or null if there is no timeout
+     */
+    private HandlerCall watch(H handler, E event, FailureConsumer<E, H> failure) {
+        long timeoutMillis = handler.getTimeoutMillis();
+        long timeoutNanos = timeoutMillis < 0 ? handlerTimeoutNanos : TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (timeoutNanos == 0) {
+            return null;
+        }
+        HandlerCall call = new HandlerCall(handler, event, failure, timeoutNanos);
+        try {
+            call.timeout = timer().schedule(() -> checkTimeout(call), timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException ex) {
+            // Bus is closed and timer is stopped, handler runs without timeout
+            return null;
+        }
+        return call;
+    }
+
+    /**
+     * Timeout task of single handler call.
+     */
+    private void checkTimeout(HandlerCall call) {
+        if (call.state.get() != HandlerCall.RUNNING) {
+            return;
+        }
+        try {
+            timedOut(call);
+        } catch (Throwable th) {
+            logger.error("Handler timeout processing fail {}. {}", call.handler.getClass().getSimpleName(), th.getMessage(), th);
+        }
+    }
+
+    private void timedOut(HandlerCall call) {
+        TimeoutException ex = new TimeoutException("Handler " + call.handler.getClass().getSimpleName() + " did not finish "
+                + call.event.getClass().getSimpleName() + " in " + TimeUnit.NANOSECONDS.toMillis(call.timeoutNanos) + " ms");
+        ex.setStackTrace(call.thread.getStackTrace());
+        handlerTimedOut(call.handler, call.event, ex);
+        if (failOnTimeout && call.state.compareAndSet(HandlerCall.RUNNING, HandlerCall.TIMED_OUT)) {
+            if (call.failure != null) {
+                call.failure.accept(call.event, call.handler, ex);
+            }
+        }
+    }
+
+    /**
+     * Handler call watched for timeout. Either handler thread completes the call or timeout task fails it, whichever
+     * comes first runs event callbacks.
+     */
+    private final class HandlerCall {
+
+        static final int RUNNING = 0;
+
+        static final int COMPLETED = 1;
+
+        static final int TIMED_OUT = 2;
+
+        private final H handler;
+
+        private final E event;
+
+        private final FailureConsumer<E, H> failure;
+
+        private final Thread thread = Thread.currentThread();
+
+        private final long timeoutNanos;
+
+        private final AtomicInteger state = new AtomicInteger();
+
+        /**
+         * Set and cancelled by handler thread.
+         */
+        private ScheduledFuture<?> timeout;
+
+        HandlerCall(H handler, E event, FailureConsumer<E, H> failure, long timeoutNanos) {
+            this.handler = handler;
+            this.event = event;
+            this.failure = failure;
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        /**
+         * @return False if call was already failed by timeout task
+         */
+        boolean complete() {
+            return state.compareAndSet(RUNNING, COMPLETED) || state.get() == COMPLETED;
+        }
+    }
+
+    /**
+     * Handler call passed to executor. Executed as plain runnable, so executor does not wrap it to future. Task
+     * taken from lane pool goes back there once handler returns.
+     */
+    private final class HandlerTask implements Runnable {
+
+        private final Lane lane;
+
+        private HandlerTask next;
+
+        private H handler;
+
+        private E event;
+
+        private BiConsumer<E, H> success;
+
+        private FailureConsumer<E, H> failure;
+
+        HandlerTask(Lane lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public void run() {
+            try {
+                runHandlerWrapper(handler, event, success, failure);
+            } finally {
+                recycle();
+                idle(1);
+            }
+        }
+
+        void recycle() {
+            handler = null;
+            event = null;
+            success = null;
+            failure = null;
+            if (lane != null) {
+                lane.releaseTask(this);
+            }
+        }
+    }
+
+    /**
+     * Several events put to dispatcher queue as single entry.
+     */
+    private static final class Batch<E extends EventBusEvent, H extends EventBusHandler<?>> extends EventWrapper<E, H> {
+
+        private final List<E> events;
+
+        Batch(List<E> events, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+            super(null, success, failure);
+            this.events = events;
+        }
+    }
+
+    /**
+     * Conflation key scoped by event class.
+     */
+    private static final class ConflationKey {
+
+        private final Class<?> cls;
+
+        private final Object key;
+
+        ConflationKey(Class<?> cls, Object key) {
+            this.cls = cls;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ConflationKey)) {
+                return false;
+            }
+            ConflationKey that = (ConflationKey) o;
+            return cls == that.cls && key.equals(that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(cls, key);
+        }
+    }
+
+    /**
+     * Queue entry that stands for the latest event with conflation key.
+     */
+    private static final class Conflated<E extends EventBusEvent, H extends EventBusHandler<?>> extends EventWrapper<E, H> {
+
+        private final ConflationKey key;
+
+        Conflated(ConflationKey key) {
+            super(null, null, null);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Serial queue of events for single handler. Mailbox is scheduled to executor only when it gets first event,
+     * and handles events until queue is empty, so at most one executor thread works with the handler at any time.
+     */
+    private final class Mailbox implements Runnable {
+
+        private final WeakHandler<H> handler;
+
+        private final Queue<EventWrapper<E, H>> queue = new ConcurrentLinkedQueue<>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Mailbox(WeakHandler<H> handler) {
+            this.handler = handler;
+        }
+
+        void add(EventWrapper<E, H> ew) {
+            busy(1);
+            queue.add(ew);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    handlersExecutor.execute(this);
+                } catch (RuntimeException ex) {
+                    scheduled.set(false);
+                    rejected(ex);
+                }
+            }
+        }
+
+        /**
+         * Fail queued events, nobody is going to take them once executor refused to run mailbox.
+         */
+        private void rejected(RuntimeException ex) {
+            H eh = handler.get();
+            logger.error("Mailbox of {} was not scheduled. {}", eh == null ? "collected handler" : eh.getClass().getSimpleName(), ex.getMessage(), ex);
+            EventWrapper<E, H> ew;
+            while ((ew = queue.poll()) != null) {
+                try {
+                    notCalled(eh, ew.event, ew.success, ew.failure, ex);
+                } finally {
+                    idle(1);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                EventWrapper<E, H> ew;
+                for (int i = 0; i < MAILBOX_THROUGHPUT && (ew = queue.poll()) != null; i++) {
+                    try {
+                        H eh = handler.get();
+                        if (eh != null) {
+                            runHandlerWrapper(eh, ew.event, ew.success, ew.failure);
+                        } else {
+                            PublishTracker.skipped(ew.success);
+                        }
+                    } finally {
+                        idle(1);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            // Events added after last poll, but before flag was reset, must not be left behind
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Buffer of events for single batch handler. Flush is scheduled to executor when buffer reaches batch size or
+     * linger timer armed by first buffered event expires. Flush takes only full batches, unless linger time is over,
+     * then it takes everything. Only one flush runs at a time.
+     */
+    private final class BatchBuffer implements Runnable {
+
+        private final WeakHandler<H> handler;
+
+        private final int maxBatchSize;
+
+        private final long lingerMillis;
+
+        private final Queue<EventWrapper<E, H>> queue = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger size = new AtomicInteger();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private final AtomicBoolean lingering = new AtomicBoolean();
+
+        private final AtomicBoolean expired = new AtomicBoolean();
+
+        BatchBuffer(WeakHandler<H> handler, EventBusBatchHandler<?> eh) {
+            this.handler = handler;
+            this.maxBatchSize = Math.max(1, eh.getMaxBatchSize());
+            this.lingerMillis = Math.max(0, eh.getLingerMillis());
+        }
+
+        void add(EventWrapper<E, H> ew) {
+            busy(1);
+            queue.add(ew);
+            if (size.incrementAndGet() >= maxBatchSize) {
+                schedule();
+            } else {
+                linger();
+            }
+        }
+
+        private void linger() {
+            if (lingering.compareAndSet(false, true)) {
+                timer().schedule(() -> {
+                    lingering.set(false);
+                    expired.set(true);
+                    schedule();
+                }, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    handlersExecutor.execute(this);
+                } catch (RuntimeException ex) {
+                    scheduled.set(false);
+                    rejected(ex);
+                }
+            }
+        }
+
+        /**
+         * Fail buffered events, nobody is going to take them once executor refused to run flush.
+         */
+        private void rejected(RuntimeException ex) {
+            H eh = handler.get();
+            logger.error("Batch of {} was not scheduled. {}", eh == null ? "collected handler" : eh.getClass().getSimpleName(), ex.getMessage(), ex);
+            List<EventWrapper<E, H>> batch;
+            while (!(batch = take()).isEmpty()) {
+                try {
+                    for (EventWrapper<E, H> ew : batch) {
+                        notCalled(eh, ew.event, ew.success, ew.failure, ex);
+                    }
+                } finally {
+                    idle(batch.size());
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                boolean flushAll = expired.getAndSet(false);
+                List<EventWrapper<E, H>> batch;
+                while ((flushAll || size.get() >= maxBatchSize) && !(batch = take()).isEmpty()) {
+                    try {
+                        runBatch(batch);
+                    } finally {
+                        idle(batch.size());
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            // Events added while we were finishing, flush them later or right now if it is time
+            int left = size.get();
+            if (left >= maxBatchSize || left > 0 && expired.get()) {
+                schedule();
+            } else if (left > 0) {
+                linger();
+            }
+        }
+
+        private List<EventWrapper<E, H>> take() {
+            List<EventWrapper<E, H>> batch = new ArrayList<>(Math.min(maxBatchSize, Math.max(size.get(), 1)));
+            EventWrapper<E, H> ew;
+            while (batch.size() < maxBatchSize && (ew = queue.poll()) != null) {
+                batch.add(ew);
+            }
+            size.addAndGet(-batch.size());
+            return batch;
+        }
+
+        private void runBatch(List<EventWrapper<E, H>> batch) {
+            H eh = handler.get();
+            if (eh == null) {
+                for (EventWrapper<E, H> ew : batch) {
+                    PublishTracker.skipped(ew.success);
+                }
+                return;
+            }
+            List<E> events = new ArrayList<>(batch.size());
+            for (EventWrapper<E, H> ew : batch) {
+                events.add(ew.event);
+            }
+            long start = metrics == null ? 0 : System.nanoTime();
+            JfrEvents.HandlerEvent jfr = handlerStarted(eh, events.get(0), events.size());
+            try {
+                runBatchHandler((EventBusBatchHandler<?>) eh, events);
+            } catch (Throwable th) {
+                handlerCompleted(eh, start, jfr, true);
+                logger.error("Handler {} fail on batch of {} events. {}", eh.getClass().getSimpleName(), batch.size(), th.getMessage(), th);
+                for (EventWrapper<E, H> ew : batch) {
+                    if (ew.failure != null) {
+                        try {
+                            ew.failure.accept(ew.event, eh, th);
+                        } catch (Throwable ex) {
+                            logger.error("Failure callback fail for {}. {}", ew.event.getClass().getSimpleName(), ex.getMessage(), ex);
+                        }
+                    }
+                }
+                return;
+            }
+            handlerCompleted(eh, start, jfr, false);
+            for (EventWrapper<E, H> ew : batch) {
+                if (ew.success != null) {
+                    try {
+                        ew.success.accept(ew.event, eh);
+                    } catch (Throwable th) {
+                        logger.error("Success callback fail for {}. {}", ew.event.getClass().getSimpleName(), th.getMessage(), th);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Events queue with own dispatcher thread. Queue entry is event itself if it is published without callbacks,
+     * otherwise {@link EventWrapper}.
+     */
+    private final class Lane {
+
+        private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger queued = new AtomicInteger();
+
+        private final Queue<Thread> capacityWaiters = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Stack of idle handler tasks. Only dispatcher thread takes tasks, so stack top can't be taken and put back
+         * between read and compare-and-set of another taker.
+         */
+        private final AtomicReference<HandlerTask> freeTasks = new AtomicReference<>();
+
+        private final AtomicInteger freeTasksCount = new AtomicInteger();
+
+        private final Thread thread;
+
+        private volatile boolean sleeping;
+
+        Lane(String name) {
+            thread = new Thread(this::eventsQueue, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        boolean offer(Object entry) {
+            if (capacity > 0 && !tryReserve()) {
+                return overflow(entry);
+            }
+            enqueue(entry);
+            return true;
+        }
+
+        void offerAll(List<E> events, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+            long now = publishedNanos();
+            if (capacity > 0 && !tryReserve(events.size())) {
+                for (E event : events) {
+                    EventWrapper<E, H> ew = new EventWrapper<>(event, success, failure);
+                    ew.publishedNanos = now;
+                    offer(ew);
+                }
+                return;
+            }
+            Batch<E, H> batch = new Batch<>(events, success, failure);
+            batch.publishedNanos = now;
+            enqueue(batch);
+        }
+
+        /**
+         * Take idle task or create new one. Called only by dispatcher thread.
+         */
+        HandlerTask takeTask() {
+            HandlerTask task;
+            do {
+                task = freeTasks.get();
+                if (task == null) {
+                    return new HandlerTask(this);
+                }
+            } while (!freeTasks.compareAndSet(task, task.next));
+            freeTasksCount.decrementAndGet();
+            task.next = null;
+            return task;
+        }
+
+        void releaseTask(HandlerTask task) {
+            if (freeTasksCount.get() >= TASK_POOL_SIZE) {
+                return;
+            }
+            freeTasksCount.incrementAndGet();
+            HandlerTask top;
+            do {
+                top = freeTasks.get();
+                task.next = top;
+            } while (!freeTasks.compareAndSet(top, task));
+        }
+
+        private void enqueue(Object entry) {
+            busy(1);
+            queue.add(entry);
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private boolean tryReserve() {
+            return tryReserve(1);
+        }
+
+        private boolean tryReserve(int places) {
+            int q;
+            do {
+                q = queued.get();
+                if (q + places > capacity) {
+                    return false;
+                }
+            } while (!queued.compareAndSet(q, q + places));
+            return true;
+        }
+
+        /**
+         * Free places reserved by queue entry and wake up one of waiting publishers.
+         */
+        private void release(Object entry) {
+            queued.addAndGet(entry instanceof Batch ? -((Batch<?, ?>) entry).events.size() : -1);
+            Thread waiter = capacityWaiters.peek();
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        private boolean overflow(Object entry) {
+            switch (overflowPolicy) {
+                case BLOCK:
+                    return awaitCapacity(entry, -1);
+                case BLOCK_TIMEOUT:
+                    return awaitCapacity(entry, blockTimeoutNanos);
+                case DROP_OLDEST:
+                    do {
+                        Object oldest = queue.poll();
+                        if (oldest != null) {
+                            release(oldest);
+                            dropped(oldest);
+                            idle(1);
+                        }
+                    } while (!tryReserve());
+                    enqueue(entry);
+                    return true;
+                case CALLER_RUNS:
+                    dispatch(entry, true);
+                    return true;
+                default:
+                    dropped(entry);
+                    return false;
+            }
+        }
+
+        /**
+         * Park publisher until dispatcher frees place in the queue.
+         *
+         * @param timeoutNanos Max time to wait or negative value to wait forever
+         */
+        private boolean awaitCapacity(Object entry, long timeoutNanos) {
+            Thread current = Thread.currentThread();
+            long deadline = System.nanoTime() + timeoutNanos;
+            boolean reserved = false;
+            capacityWaiters.add(current);
+            try {
+                while (!(reserved = tryReserve())) {
+                    if (current.isInterrupted() || closed) {
+                        break;
+                    }
+                    if (timeoutNanos < 0) {
+                        LockSupport.park(this);
+                    } else {
+                        long left = deadline - System.nanoTime();
+                        if (left <= 0) {
+                            break;
+                        }
+                        LockSupport.parkNanos(this, left);
+                    }
+                }
+            } finally {
+                capacityWaiters.remove(current);
+                // We could take wake up signal that was meant for someone else, pass it on
+                if (queued.get() < capacity) {
+                    Thread waiter = capacityWaiters.peek();
+                    if (waiter != null) {
+                        LockSupport.unpark(waiter);
+                    }
+                }
+            }
+
+            if (reserved) {
+                enqueue(entry);
+            } else {
+                dropped(entry);
+            }
+            return reserved;
+        }
+
+        private void eventsQueue() {
+            int idleCount = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                registry.expunge();
+
+                Object entry = queue.poll();
+                if (entry == null) {
+                    if (waitStrategy.idle(idleCount)) {
+                        park();
+                        idleCount = 0;
+                    } else if (idleCount < Integer.MAX_VALUE) {
+                        idleCount++;
+                    }
+                    continue;
+                }
+
+                idleCount = 0;
+                if (capacity > 0) {
+                    release(entry);
+                }
+                try {
+                    dispatch(entry, false);
+                } finally {
+                    idle(1);
+                }
+            }
+            if (!closed) {
+                logger.warn("Events dispatcher thread was interrupted, no more events will be processed");
+            }
+        }
+
+        /**
+         * Interrupt dispatcher and drop events it did not take, wake up publishers waiting for capacity.
+         */
+        void stop() {
+            thread.interrupt();
+            Object entry;
+            while ((entry = queue.poll()) != null) {
+                dropped(entry);
+                idle(1);
+            }
+            for (Thread waiter : capacityWaiters) {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        /**
+         * Park dispatcher until publisher unparks it. Sleeping flag is raised before queue is checked again and
+         * publishers check it after adding event, thus one of us always sees the other.
+         */
+        private void park() {
+            sleeping = true;
+            try {
+                if (queue.isEmpty()) {
+                    LockSupport.park(this);
+                }
+            } finally {
+                sleeping = false;
             }
         }
     }
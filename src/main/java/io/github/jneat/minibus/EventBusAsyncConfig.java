@@ -0,0 +1,188 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for {@link EventBusAsync}. All settings are optional, defaults are the same as for
+ * {@link EventBusAsync#EventBusAsync()}.
+ * <pre>{@code
+ * new EventBusAsync<>(new EventBusAsyncConfig()
+ *     .capacity(10_000, OverflowPolicy.BLOCK_TIMEOUT)
+ *     .blockTimeout(100, TimeUnit.MILLISECONDS));
+ * }</pre>
+ */
+public class EventBusAsyncConfig {
+
+    ExecutorService handlersExecutor;
+
+    WaitStrategy waitStrategy = WaitStrategy.blocking();
+
+    int dispatchers = 1;
+
+    boolean orderedHandlers;
+
+    boolean conflation;
+
+    int capacity;
+
+    OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    long blockTimeoutNanos;
+
+    EventBusMetrics metrics;
+
+    long handlerTimeoutNanos;
+
+    boolean failOnTimeout;
+
+    int stickyCapacity = StickyEvents.DEFAULT_CAPACITY;
+
+    /**
+     * Executor that runs event handlers. By default CachedThreadPool is created.
+     */
+    public EventBusAsyncConfig handlersExecutor(ExecutorService handlersExecutor) {
+        this.handlersExecutor = handlersExecutor;
+        return this;
+    }
+
+    /**
+     * Defines how dispatcher thread waits for new events. By default {@link WaitStrategy#blocking()}.
+     */
+    public EventBusAsyncConfig waitStrategy(WaitStrategy waitStrategy) {
+        if (waitStrategy == null) {
+            throw new IllegalArgumentException("Wait strategy must not be null");
+        }
+        this.waitStrategy = waitStrategy;
+        return this;
+    }
+
+    /**
+     * Number of dispatcher lanes. Each lane has own queue and thread, events are routed to lanes by
+     * {@link EventBusEvent#partitionKey()}. By default there is single lane.
+     */
+    public EventBusAsyncConfig dispatchers(int dispatchers) {
+        if (dispatchers < 1) {
+            throw new IllegalArgumentException("There must be at least one dispatcher");
+        }
+        this.dispatchers = dispatchers;
+        return this;
+    }
+
+    /**
+     * Deliver events to each handler one by one in dispatching order. Every subscribed handler gets own mailbox
+     * that is drained by executor thread, so handler never runs concurrently with itself, while different
+     * handlers still run in parallel. By default each event/handler call is submitted to executor separately.
+     * <p>
+     * Can not be combined with {@link OverflowPolicy#CALLER_RUNS}.
+     */
+    public EventBusAsyncConfig orderedHandlers(boolean orderedHandlers) {
+        this.orderedHandlers = orderedHandlers;
+        return this;
+    }
+
+    /**
+     * Deliver only the latest event for each {@link EventBusEvent#conflationKey()}. Event that was not dispatched yet
+     * is replaced by newer event of the same class with equal key, so burst of updates to one key ends up as single
+     * handler call. Events without conflation key are not affected. Disabled by default.
+     */
+    public EventBusAsyncConfig conflation(boolean conflation) {
+        this.conflation = conflation;
+        return this;
+    }
+
+    /**
+     * Limit number of events waiting for dispatch in each dispatcher lane. By default queue is unbounded.
+     *
+     * @param capacity       Max number of queued events per lane, 0 means unbounded queue
+     * @param overflowPolicy What to do with published event when queue is full
+     */
+    public EventBusAsyncConfig capacity(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative");
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("Overflow policy must not be null");
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * How long publisher waits for free space with {@link OverflowPolicy#BLOCK_TIMEOUT}.
+     */
+    public EventBusAsyncConfig blockTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        this.blockTimeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Listener of publishing, dispatching and handler calls. By default there is none.
+     */
+    public EventBusAsyncConfig metrics(EventBusMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Max execution time of handler call. Watchdog reports handlers running longer with their thread stack trace,
+     * handler can set own limit with {@link EventBusHandler#getTimeoutMillis()}. By default there is no limit.
+     *
+     * @param timeout Max handler execution time, 0 means no limit
+     */
+    public EventBusAsyncConfig handlerTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        this.handlerTimeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Fail event with {@link java.util.concurrent.TimeoutException} passed to {@link FailureConsumer} when handler
+     * exceeds its timeout. Handler keeps running, but its result is ignored. By default timed out handler is only
+     * reported.
+     */
+    public EventBusAsyncConfig failOnTimeout(boolean failOnTimeout) {
+        this.failOnTimeout = failOnTimeout;
+        return this;
+    }
+
+    /**
+     * Max number of event classes with kept sticky event, see {@link EventBus#publishSticky}. By default 64.
+     */
+    public EventBusAsyncConfig stickyCapacity(int stickyCapacity) {
+        if (stickyCapacity < 1) {
+            throw new IllegalArgumentException("Sticky capacity must be positive");
+        }
+        this.stickyCapacity = stickyCapacity;
+        return this;
+    }
+}
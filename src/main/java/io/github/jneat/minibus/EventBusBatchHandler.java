@@ -0,0 +1,82 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Handler that receives events in groups. {@link EventBusAsync} accumulates events for each such handler until
+ * there are {@link #getMaxBatchSize()} of them or {@link #getLingerMillis()} passed since first event was buffered,
+ * and then calls {@link #handleBatch} with all of them. Batches of the same handler never run concurrently.
+ * <p>
+ * Success or failure callbacks are still called for each event of the batch. If handleBatch throws an exception
+ * whole batch is treated as failed.
+ * <p>
+ * Other event bus implementations call handleBatch with single event.
+ */
+public abstract class EventBusBatchHandler<E extends EventBusEvent> extends EventBusHandler<E> {
+
+    protected EventBusBatchHandler() {
+    }
+
+    /**
+     * @param eventClass Event type class that must be handled by this handler
+     */
+    protected EventBusBatchHandler(Class<E> eventClass) {
+        super(eventClass);
+    }
+
+    /**
+     * Max events in one batch.
+     */
+    protected int getMaxBatchSize() {
+        return 100;
+    }
+
+    /**
+     * Max time to wait for batch to fill up.
+     */
+    protected long getLingerMillis() {
+        return 10;
+    }
+
+    /**
+     * This method should handle events batch of an appropriate type.
+     *
+     * @param events Events in publishing order, never empty
+     */
+    public abstract void handleBatch(List<E> events) throws Throwable;
+
+    @SuppressWarnings("unchecked")
+    public void handleEvents(List<? extends EventBusEvent> events) throws Throwable {
+        // Event bus passes only events accepted by this handler, same as for handleEvent
+        this.handleBatch((List<E>) events);
+    }
+
+    @Override
+    public final void handle(E event) throws Throwable {
+        handleBatch(Collections.singletonList(event));
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Bus for high rate binary messages that does not create any objects per message. Messages are stored in off-heap
+ * ring of fixed size slots, publisher claims slot and writes payload right into it through {@link BinaryEvent}
+ * flyweight, handlers read payload in place.
+ * <pre>{@code
+ * EventBusBinary bus = new EventBusBinary(1024, 64);
+ * bus.claim(TICK, 16).putLong(0, instrumentId).putDouble(8, price).commit();
+ * }</pre>
+ * Handlers are subscribed with weak links like in other buses and receive all messages, message type is available
+ * with {@link BinaryEvent#type()}. Handlers run in dispatcher thread in publishing order. Claiming and waiting for
+ * free slot follows the same protocol as {@link EventBusRing}.
+ * <p>
+ * Claimed slot blocks dispatcher until it is committed or aborted, so code that can fail while writing payload must
+ * abort the claim, or use {@link #publish(int, int, Consumer)} that does it.
+ * <p>
+ * {@link #close} stops dispatcher thread, after that bus and its off-heap ring can be garbage collected. Publishers
+ * that are still waiting for free slot or writing payload once dispatcher has stopped get
+ * {@link IllegalStateException}, their messages are not delivered.
+ */
+public class EventBusBinary implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventBusBinary.class);
+
+    private static final int PUBLISHER_SPINS = 100;
+
+    /**
+     * Slot header: message type and payload length.
+     */
+    static final int HEADER_SIZE = 8;
+
+    /**
+     * Payload length of aborted message, dispatcher skips such slot.
+     */
+    private static final int ABORTED = -1;
+
+    /**
+     * Sequence of slot released by stopped dispatcher, commit to such slot fails.
+     */
+    private static final long RELEASED = Long.MIN_VALUE;
+
+    private final HandlersRegistry<EventBusHandler<BinaryEvent>> registry = new HandlersRegistry<>();
+
+    private final ByteBuffer[] slots;
+
+    private final int mask;
+
+    private final int maxPayload;
+
+    private final AtomicLongArray available;
+
+    private final AtomicLong claimed = new AtomicLong();
+
+    private final AtomicLong consumed = new AtomicLong();
+
+    private final ThreadLocal<BinaryEvent> claims = ThreadLocal.withInitial(BinaryEvent::new);
+
+    private final BinaryEvent reader = new BinaryEvent();
+
+    private final WaitStrategy waitStrategy;
+
+    private final Thread dispatcherThread;
+
+    private volatile boolean sleeping;
+
+    private volatile boolean closed;
+
+    private volatile boolean stopping;
+
+    private volatile boolean stopped;
+
+    /**
+     * CAN OVERRIDE THIS METHOD. Passing message to handler.
+     */
+    protected void runHandler(EventBusHandler<BinaryEvent> h, BinaryEvent e) throws Throwable {
+        h.handle(e);
+    }
+
+    /**
+     * @param size       Ring size, must be power of two
+     * @param maxPayload Max payload length in bytes
+     */
+    public EventBusBinary(int size, int maxPayload) {
+        this(size, maxPayload, WaitStrategy.blocking());
+    }
+
+    /**
+     * @param size         Ring size, must be power of two
+     * @param maxPayload   Max payload length in bytes
+     * @param waitStrategy Defines how dispatcher thread waits for new messages
+     */
+    public EventBusBinary(int size, int maxPayload, WaitStrategy waitStrategy) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Ring size must be power of two, got " + size);
+        }
+        // Slots are aligned to 8 bytes, so aligned payload fields stay aligned in memory
+        int slotSize = (HEADER_SIZE + maxPayload + 7) & ~7;
+        if (maxPayload < 0 || (long) slotSize * size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Ring of " + size + " slots with " + maxPayload + " bytes payload is too large");
+        }
+        this.mask = size - 1;
+        this.maxPayload = maxPayload;
+        this.slots = new ByteBuffer[size];
+        this.available = new AtomicLongArray(size);
+        ByteBuffer memory = ByteBuffer.allocateDirect(slotSize * size);
+        for (int i = 0; i < size; i++) {
+            memory.limit((i + 1) * slotSize).position(i * slotSize);
+            slots[i] = memory.slice();
+            available.set(i, -1);
+        }
+        this.waitStrategy = waitStrategy;
+        dispatcherThread = new Thread(this::dispatch, "EventBinary handlers thread");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    public void subscribe(EventBusHandler<BinaryEvent> subscriber) {
+        registry.subscribe(subscriber);
+    }
+
+    public void unsubscribe(EventBusHandler<BinaryEvent> subscriber) {
+        registry.unsubscribe(subscriber);
+    }
+
+    /**
+     * Claim next slot, waiting if ring is full. Returned flyweight belongs to current thread and must be committed or
+     * aborted before next claim, otherwise dispatcher waits for this slot forever.
+     *
+     * @param type   Message type
+     * @param length Payload length, not larger than max payload of the bus
+     * @return Flyweight to write payload
+     * @throws IllegalStateException If bus is closed
+     */
+    public BinaryEvent claim(int type, int length) {
+        if (closed) {
+            throw new IllegalStateException("Bus is closed");
+        }
+        if (length < 0 || length > maxPayload) {
+            throw new IllegalArgumentException("Payload length " + length + " is out of range 0.." + maxPayload);
+        }
+        BinaryEvent claim = claims.get();
+        if (claim.slot != null) {
+            throw new IllegalStateException("Previous message was not committed");
+        }
+        long seq = claimed.getAndIncrement();
+        awaitSlot(seq);
+        ByteBuffer slot = slots[(int) seq & mask];
+        slot.putInt(0, type);
+        slot.putInt(4, length);
+        claim.wrap(this, slot, seq, type, length);
+        return claim;
+    }
+
+    /**
+     * Publish message with payload copied from remaining bytes of buffer. Buffer position is not changed.
+     */
+    public void publish(int type, ByteBuffer payload) {
+        BinaryEvent claim = claim(type, payload.remaining());
+        int position = payload.position();
+        claim.slot.position(HEADER_SIZE);
+        claim.slot.put(payload);
+        payload.position(position);
+        claim.commit();
+    }
+
+    /**
+     * Publish message with payload written by writer. Claim is aborted if writer throws exception, so failed message
+     * does not block the ring. Writer should not capture anything to keep publishing allocation free.
+     */
+    public void publish(int type, int length, Consumer<BinaryEvent> writer) {
+        BinaryEvent claim = claim(type, length);
+        try {
+            writer.accept(claim);
+        } catch (RuntimeException | Error ex) {
+            claim.abort();
+            throw ex;
+        }
+        claim.commit();
+    }
+
+    public boolean hasPendingEvents() {
+        return !stopped && consumed.get() < claimed.get();
+    }
+
+    /**
+     * Stop accepting messages, wait until claimed messages are handled and stop dispatcher thread. Waits without limit,
+     * use {@link #close(long, TimeUnit)} if some claim can be left uncommitted.
+     */
+    @Override
+    public void close() {
+        close(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop accepting messages, wait until claimed messages are handled and stop dispatcher thread. Messages that were
+     * not handled before timeout are lost, claims that are not committed yet fail on commit.
+     *
+     * @return False if timeout elapsed before all messages were handled
+     */
+    public boolean close(long timeout, TimeUnit unit) {
+        closed = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean drained = true;
+        while (hasPendingEvents()) {
+            if (deadline - System.nanoTime() <= 0 || Thread.currentThread().isInterrupted()) {
+                drained = false;
+                break;
+            }
+            LockSupport.parkNanos(this, 100_000);
+        }
+        stopping = true;
+        dispatcherThread.interrupt();
+        try {
+            dispatcherThread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        return drained;
+    }
+
+    void commit(BinaryEvent claim, boolean aborted) {
+        if (aborted) {
+            claim.slot.putInt(4, ABORTED);
+        }
+        long seq = claim.sequence;
+        claim.unwrap();
+        // Volatile write, it must not be reordered with sleeping flag read below. Slot still holds sequence of previous
+        // lap, unless stopped dispatcher has released it
+        if (!available.compareAndSet((int) seq & mask, seq < slots.length ? -1 : seq - slots.length, seq)) {
+            throw new IllegalStateException("Bus is closed, message was not delivered");
+        }
+
+        if (sleeping) {
+            LockSupport.unpark(dispatcherThread);
+        }
+    }
+
+    /**
+     * Wait until dispatcher releases slot that was used one lap before.
+     */
+    private void awaitSlot(long seq) {
+        int spins = 0;
+        while (seq - slots.length >= consumed.get()) {
+            if (stopped) {
+                throw new IllegalStateException("Bus is closed");
+            }
+            if (spins < PUBLISHER_SPINS) {
+                spins++;
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(this, 1_000);
+            }
+        }
+    }
+
+    private void dispatch() {
+        long next = 0;
+        int idleCount = 0;
+        // Handler can swallow interruption, so stop request is also kept in flag
+        while (!stopping && !Thread.currentThread().isInterrupted()) {
+            registry.expunge();
+
+            int idx = (int) next & mask;
+            if (available.get(idx) != next) {
+                if (waitStrategy.idle(idleCount)) {
+                    park(idx, next);
+                    idleCount = 0;
+                } else if (idleCount < Integer.MAX_VALUE) {
+                    idleCount++;
+                }
+                continue;
+            }
+
+            idleCount = 0;
+            ByteBuffer slot = slots[idx];
+            int length = slot.getInt(4);
+            try {
+                if (length != ABORTED) {
+                    reader.wrap(null, slot, next, slot.getInt(0), length);
+                    notifySubscribers(reader);
+                }
+            } finally {
+                reader.unwrap();
+                consumed.lazySet(++next);
+            }
+        }
+        if (!closed) {
+            logger.warn("Events dispatcher thread was interrupted, no more events will be processed");
+        }
+        release(next);
+    }
+
+    /**
+     * Release all slots once dispatcher has stopped, so publishers waiting for slot or writing payload fail instead
+     * of waiting forever. Commit races with release by CAS on the same slot, so message that was not handled is either
+     * counted here or fails on commit.
+     */
+    private void release(long next) {
+        closed = true;
+        stopped = true;
+        int lost = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (available.getAndSet(i, RELEASED) >= next) {
+                lost++;
+            }
+        }
+        if (lost > 0) {
+            logger.warn("Events dispatcher thread was stopped, {} committed messages were not handled", lost);
+        }
+    }
+
+    /**
+     * Park dispatcher until publisher unparks it. Same protocol as in {@link EventBusAsync}.
+     */
+    private void park(int idx, long next) {
+        sleeping = true;
+        try {
+            if (available.get(idx) != next) {
+                LockSupport.park(this);
+            }
+        } finally {
+            sleeping = false;
+        }
+    }
+
+    private void notifySubscribers(BinaryEvent event) {
+        WeakHandler<EventBusHandler<BinaryEvent>>[] hcls = registry.linked(BinaryEvent.class);
+        if (hcls != null) {
+            for (WeakHandler<EventBusHandler<BinaryEvent>> wh : hcls) {
+                EventBusHandler<BinaryEvent> eh = wh.get();
+                if (eh != null) {
+                    runHandlerWrapper(eh, event);
+                }
+            }
+        }
+
+        for (WeakHandler<EventBusHandler<BinaryEvent>> wh : registry.wildcards()) {
+            EventBusHandler<BinaryEvent> eh = wh.get();
+            if (eh != null && eh.canHandle(BinaryEvent.class)) {
+                runHandlerWrapper(eh, event);
+            }
+        }
+    }
+
+    private void runHandlerWrapper(EventBusHandler<BinaryEvent> handler, BinaryEvent event) {
+        try {
+            runHandler(handler, event);
+        } catch (Throwable th) {
+            logger.error("Handler {} fail on binary event type {}. {}", handler.getClass().getSimpleName(), event.type(), th.getMessage(), th);
+        }
+    }
+}
@@ -30,4 +30,24 @@ package io.github.jneat.minibus;
  * for your message, you can use <a href="https://projectlombok.org">project lombok</a> library for this purpose.
  */
 public interface EventBusEvent {
+
+    /**
+     * Key used by event bus with several dispatchers to choose dispatcher for this event.
+     * Events with equal keys are always dispatched by the same dispatcher in publishing order.
+     *
+     * @return Partition key or null to use event class as a key
+     */
+    default Object partitionKey() {
+        return null;
+    }
+
+    /**
+     * Key used by event bus with conflation enabled. Pending event of the same class with equal key is replaced
+     * by this one, so handlers get only the latest value for the key.
+     *
+     * @return Conflation key or null if event must never be replaced
+     */
+    default Object conflationKey() {
+        return null;
+    }
 }
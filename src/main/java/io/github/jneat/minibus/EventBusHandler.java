@@ -24,25 +24,55 @@
 package io.github.jneat.minibus;
 
 import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * EventBus event handler.
  * There is no restriction on how many handlers will be subscribed to one or
  * another event type.
  * Keep in mind that handler will be subscribed to EventBus using weak link.
+ * <p>
+ * Event type is taken from {@link SubscriberIndex} or resolved from generic superclass once per handler class.
+ * If it can not be resolved, e.g. for generic handler classes, pass event class to
+ * {@link EventBusHandler#EventBusHandler(Class)} constructor.
  */
+@IndexedHandler
 public abstract class EventBusHandler<E extends EventBusEvent> {
 
-    public Class<E> eventClass;
+    private static final ClassValue<Class<?>> EVENT_CLASSES = new ClassValue<Class<?>>() {
+        @Override
+        protected Class<?> computeValue(Class<?> type) {
+            Class<?> indexed = SubscriberIndexes.getEventClass(type);
+            return indexed != null ? indexed : resolveEventClass(type);
+        }
+    };
+
+    private final Class<E> eventClass;
 
+    /**
+     * Event class is resolved from handler class type arguments.
+     */
     @SuppressWarnings("unchecked")
-    private Class<E> getGenericTypeClass() {
-        if (eventClass == null) {
-            // noinspection unchecked
-            eventClass = (Class<E>) ((ParameterizedType) getClass()
-                    .getGenericSuperclass())
-                    .getActualTypeArguments()[0];
-        }
+    protected EventBusHandler() {
+        this.eventClass = (Class<E>) EVENT_CLASSES.get(getClass());
+    }
+
+    /**
+     * @param eventClass Event type class that must be handled by this handler
+     */
+    protected EventBusHandler(Class<E> eventClass) {
+        this.eventClass = eventClass;
+    }
+
+    /**
+     * Event type class given to constructor or resolved from type arguments.
+     *
+     * @return Event class or null if it can not be resolved
+     */
+    public Class<E> getEventClass() {
         return eventClass;
     }
 
@@ -53,9 +83,14 @@ public abstract class EventBusHandler<E extends EventBusEvent> {
      * to decide if particular message should be handled.
      *
      * @return Compatible class or null
+     * @throws IllegalStateException If event class was not given to constructor and can not be resolved
      */
     protected Class<E> getLinkedClass() {
-        return getGenericTypeClass();
+        if (eventClass == null) {
+            throw new IllegalStateException("Event class of " + getClass().getName()
+                    + " can not be resolved from type arguments, pass it to EventBusHandler(Class) constructor");
+        }
+        return eventClass;
     }
 
     /**
@@ -70,12 +105,81 @@ public abstract class EventBusHandler<E extends EventBusEvent> {
         return false;
     }
 
+    /**
+     * Return true if {@link EventBusHandler#canHandle} result depends only on event class and never changes.
+     * In this case event bus asks handler once per event class and remembers the answer until subscriptions change,
+     * so wildcard handler costs the same as handler with linked class.
+     *
+     * @return False by default, {@link EventBusHandler#canHandle} is called for each event
+     */
+    protected boolean isCanHandleStable() {
+        return false;
+    }
+
+    /**
+     * Return true to receive events of {@link EventBusHandler#getLinkedClass} subclasses and implementations, when
+     * linked class is a supertype or an interface. Event bus computes handlers of each concrete event class once,
+     * so such handler costs the same as handler linked to exact class.
+     *
+     * @return False by default, only events of exact linked class are handled
+     */
+    protected boolean isHandlingSubtypes() {
+        return false;
+    }
+
+    /**
+     * Max execution time of single event handling in {@link EventBusAsync}, overrides
+     * {@link EventBusAsyncConfig#handlerTimeout} for this handler.
+     *
+     * @return Negative value by default to use bus setting, 0 means no limit
+     */
+    protected long getTimeoutMillis() {
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
     public void handleEvent(EventBusEvent event) throws Throwable {
-        this.handle(getGenericTypeClass().cast(event));
+        // Event bus passes only events accepted by this handler. Cast is unchecked: bridge method of handle checks the
+        // type only if handler class binds E to concrete class, generic handler whose E erases to EventBusEvent gets
+        // event as is
+        this.handle((E) event);
     }
 
     /**
      * This method should handle event of an appropriate type.
      */
     public abstract void handle(E event) throws Throwable;
+
+    /**
+     * Walk up from handler class to EventBusHandler substituting type variables declared by intermediate classes.
+     *
+     * @return Event class or null if type argument is not a concrete type
+     */
+    private static Class<?> resolveEventClass(Class<?> cls) {
+        Map<TypeVariable<?>, Type> bindings = new HashMap<>();
+        Class<?> c = cls;
+        while (c != null && c != EventBusHandler.class) {
+            Type sup = c.getGenericSuperclass();
+            if (sup instanceof ParameterizedType) {
+                ParameterizedType pt = (ParameterizedType) sup;
+                Class<?> raw = (Class<?>) pt.getRawType();
+                TypeVariable<?>[] vars = raw.getTypeParameters();
+                Type[] args = pt.getActualTypeArguments();
+                for (int i = 0; i < vars.length; i++) {
+                    Type arg = args[i];
+                    bindings.put(vars[i], arg instanceof TypeVariable && bindings.containsKey(arg)
+                            ? bindings.get(arg) : arg);
+                }
+                c = raw;
+            } else {
+                c = sup instanceof Class ? (Class<?>) sup : null;
+            }
+        }
+
+        Type type = bindings.get(EventBusHandler.class.getTypeParameters()[0]);
+        if (type instanceof ParameterizedType) {
+            type = ((ParameterizedType) type).getRawType();
+        }
+        return type instanceof Class ? (Class<?>) type : null;
+    }
 }
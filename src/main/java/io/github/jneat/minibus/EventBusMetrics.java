@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+/**
+ * Listener of event bus activity, e.g. to export metrics to monitoring system.
+ * <p>
+ * Methods are called synchronously from publisher, dispatcher and handler threads, so they must be fast and thread
+ * safe. Without listener bus does not even read the clock. See
+ * {@link io.github.jneat.minibus.metrics.EventBusStats} for built-in implementation.
+ */
+public interface EventBusMetrics {
+
+    /**
+     * Event was published to bus. If it is dropped later {@link #eventDropped} is called as well.
+     */
+    default void eventPublished(Class<? extends EventBusEvent> eventClass) {
+    }
+
+    /**
+     * Event was dropped by overflow policy or replaced with newer one by conflation.
+     */
+    default void eventDropped(Class<? extends EventBusEvent> eventClass) {
+    }
+
+    /**
+     * Dispatcher took event from queue and is passing it to handlers.
+     *
+     * @param queuedNanos Time between publishing and dispatching
+     */
+    default void eventDispatched(Class<? extends EventBusEvent> eventClass, long queuedNanos) {
+    }
+
+    /**
+     * Handler call finished. For batch handler it is called once per batch.
+     *
+     * @param nanos  Handler execution time
+     * @param failed True if handler has thrown an exception
+     */
+    default void handlerCompleted(Class<?> handlerClass, long nanos, boolean failed) {
+    }
+}
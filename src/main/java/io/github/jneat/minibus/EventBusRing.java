@@ -0,0 +1,710 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * Async event bus backed by preallocated ring of reusable slots. Publishing does not allocate anything,
+ * so it is suitable for high rate events where {@link EventBusAsync} queue nodes produce noticeable GC churn.
+ * <p>
+ * Ring size is fixed and must be power of two. Each publisher claims next sequence number, waits until its slot
+ * is released by dispatcher (when ring is full publishers are blocked), stores event in the slot and marks
+ * sequence as available. Single dispatcher thread reads slots strictly in sequence order.
+ * <p>
+ * Without executor handlers are called directly in dispatcher thread one by one, in publishing order.
+ * With executor each event/handler call runs in separate thread just like in {@link EventBusAsync}.
+ * Note that handlers running in dispatcher thread must not publish to the same bus, if ring is full such
+ * publisher waits for dispatcher forever.
+ * <p>
+ * {@link #close} stops dispatcher thread, executor is not shut down as it is owned by caller. Events published
+ * after close, or left in the ring once dispatcher has stopped, are dropped as described in {@link EventBus}.
+ */
+public class EventBusRing<E extends EventBusEvent, H extends EventBusHandler<?>> implements EventBus<E, H>, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventBusRing.class);
+
+    private static final int PUBLISHER_SPINS = 100;
+
+    /**
+     * How many idle handler tasks dispatcher keeps for reuse.
+     */
+    private static final int TASK_POOL_SIZE = 1024;
+
+    /**
+     * Sequence of slot released by stopped dispatcher, publishing to such slot fails.
+     */
+    private static final long RELEASED = Long.MIN_VALUE;
+
+    private final HandlersRegistry<H> registry = new HandlersRegistry<>();
+
+    private final Slot<E, H>[] slots;
+
+    private final int mask;
+
+    private final AtomicLongArray available;
+
+    private final AtomicLong claimed = new AtomicLong();
+
+    private final AtomicLong consumed = new AtomicLong();
+
+    /**
+     * Handler calls passed to executor and not finished yet.
+     */
+    private final AtomicLong running = new AtomicLong();
+
+    private final ExecutorService handlersExecutor;
+
+    /**
+     * Handler calls go through {@link #submitHandler} only if subclass overrides it, otherwise they are passed to
+     * executor without wrapping event.
+     */
+    private final boolean customSubmit;
+
+    /**
+     * Stack of idle handler tasks, only dispatcher thread takes them.
+     */
+    private final AtomicReference<HandlerTask> freeTasks = new AtomicReference<>();
+
+    private final AtomicInteger freeTasksCount = new AtomicInteger();
+
+    private final WaitStrategy waitStrategy;
+
+    private final EventBusMetrics metrics;
+
+    private final Thread dispatcherThread;
+
+    private volatile boolean sleeping;
+
+    private volatile boolean closed;
+
+    private volatile boolean stopping;
+
+    private volatile boolean stopped;
+
+    /**
+     * CAN OVERRIDE THIS METHOD. If you need to add some weirdo filters to events right before handler will be submitted
+     * to executor. Called only if bus was created with executor.
+     */
+    protected void submitHandler(H h, EventWrapper<E, H> ew) {
+        execute(h, ew.event, ew.success, ew.failure);
+    }
+
+    /**
+     * CAN OVERRIDE THIS METHOD. Passing event to handler.
+     */
+    protected void runHandler(H h, E e) throws Throwable {
+        h.handleEvent(e);
+    }
+
+    /**
+     * Create bus that runs handlers in dispatcher thread.
+     *
+     * @param size Ring size, must be power of two
+     */
+    public EventBusRing(int size) {
+        this(size, null, WaitStrategy.blocking());
+    }
+
+    /**
+     * Create bus that runs each event/handler call using executor.
+     *
+     * @param size             Ring size, must be power of two
+     * @param handlersExecutor Will be used to run event handler processing for each event
+     */
+    public EventBusRing(int size, ExecutorService handlersExecutor) {
+        this(size, handlersExecutor, WaitStrategy.blocking());
+    }
+
+    /**
+     * Create bus with custom dispatcher wait strategy.
+     *
+     * @param size             Ring size, must be power of two
+     * @param handlersExecutor Will be used to run event handler processing for each event or null to run handlers in
+     *                         dispatcher thread
+     * @param waitStrategy     Defines how dispatcher thread waits for new events
+     */
+    public EventBusRing(int size, ExecutorService handlersExecutor, WaitStrategy waitStrategy) {
+        this(size, handlersExecutor, waitStrategy, null);
+    }
+
+    /**
+     * Create bus with metrics listener.
+     *
+     * @param size             Ring size, must be power of two
+     * @param handlersExecutor Will be used to run event handler processing for each event or null to run handlers in
+     *                         dispatcher thread
+     * @param waitStrategy     Defines how dispatcher thread waits for new events
+     * @param metrics          Listener of publishing, dispatching and handler calls or null
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public EventBusRing(int size, ExecutorService handlersExecutor, WaitStrategy waitStrategy,
+                        EventBusMetrics metrics) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Ring size must be power of two, got " + size);
+        }
+        this.mask = size - 1;
+        this.slots = new Slot[size];
+        this.available = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot<>();
+            available.set(i, -1);
+        }
+        this.handlersExecutor = handlersExecutor;
+        this.customSubmit = overridesSubmitHandler(getClass());
+        this.waitStrategy = waitStrategy;
+        this.metrics = metrics;
+        dispatcherThread = new Thread(this::dispatch, "EventRing handlers thread");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    private static boolean overridesSubmitHandler(Class<?> cls) {
+        for (Class<?> c = cls; c != EventBusRing.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("submitHandler", EventBusHandler.class, EventWrapper.class);
+                return true;
+            } catch (NoSuchMethodException ex) {
+                // Look at superclass
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void subscribe(H subscriber) {
+        registry.subscribe(subscriber);
+    }
+
+    @Override
+    public void unsubscribe(H subscriber) {
+        registry.unsubscribe(subscriber);
+    }
+
+    @Override
+    public void publish(E event) {
+        publish(event, null, null);
+    }
+
+    @Override
+    public void publish(E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        if (event == null) {
+            return;
+        }
+        if (closed) {
+            dropped(event, success, failure);
+            return;
+        }
+        write(claimed.getAndIncrement(), event, success, failure);
+    }
+
+    @Override
+    public CompletableFuture<PublishResult<E, H>> publishAsync(E event) {
+        PublishTracker<E, H> tracker = new PublishTracker<>(event);
+        if (event == null) {
+            PublishTracker.dispatched(tracker);
+        } else {
+            publish(event, tracker, tracker);
+        }
+        return tracker.future();
+    }
+
+    /**
+     * Claims sequences for whole batch at once. Collection is iterated twice: to count events and to write them.
+     */
+    @Override
+    public void publishAll(Collection<? extends E> events, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        int count = 0;
+        for (E event : events) {
+            if (event != null) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        if (closed) {
+            for (E event : events) {
+                if (event != null) {
+                    dropped(event, success, failure);
+                }
+            }
+            return;
+        }
+        long seq = claimed.getAndAdd(count);
+        long end = seq + count;
+        for (E event : events) {
+            if (event == null) {
+                continue;
+            }
+            if (seq < end) {
+                write(seq++, event, success, failure);
+            } else {
+                // Collection has grown since it was counted
+                write(claimed.getAndIncrement(), event, success, failure);
+            }
+        }
+        // Collection has shrunk, claimed slots must be released anyway or dispatcher would wait for them forever
+        while (seq < end) {
+            write(seq++, null, null, null);
+        }
+    }
+
+    /**
+     * @param event Event or null for empty slot that dispatcher skips
+     */
+    private void write(long seq, E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        if (!awaitSlot(seq)) {
+            if (event != null) {
+                dropped(event, success, failure);
+            }
+            return;
+        }
+
+        int idx = (int) seq & mask;
+        Slot<E, H> slot = slots[idx];
+        slot.event = event;
+        slot.success = success;
+        slot.failure = failure;
+        if (metrics != null && event != null) {
+            metrics.eventPublished(event.getClass());
+        }
+        if (JfrEvents.AVAILABLE && event != null) {
+            JfrEvents.published(event.getClass());
+        }
+        slot.publishedNanos = metrics != null || JfrEvents.AVAILABLE && JfrEvents.isDispatchEnabled()
+                ? System.nanoTime() : 0;
+        // Volatile write, it must not be reordered with sleeping flag read below. Slot still holds sequence of previous
+        // lap, unless stopped dispatcher has released it
+        if (!available.compareAndSet(idx, seq < slots.length ? -1 : seq - slots.length, seq)) {
+            slot.event = null;
+            slot.success = null;
+            slot.failure = null;
+            if (event != null) {
+                dropped(event, success, failure);
+            }
+            return;
+        }
+
+        if (sleeping) {
+            LockSupport.unpark(dispatcherThread);
+        }
+    }
+
+    /**
+     * @return True if events are still in the ring or their handlers are still running in executor
+     */
+    @Override
+    public boolean hasPendingEvents() {
+        // Handler calls are counted before event leaves the ring, so ring is checked first
+        return !stopped && consumed.get() < claimed.get() || running.get() > 0;
+    }
+
+    /**
+     * Stop accepting events, wait until published events are handled and stop dispatcher thread. Waits without limit,
+     * use {@link #close(long, TimeUnit)} if handlers can get stuck.
+     */
+    @Override
+    public void close() {
+        close(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop accepting events, wait until published events are handled and stop dispatcher thread. Events published
+     * after close and events that were not dispatched before timeout are dropped.
+     *
+     * @return False if timeout elapsed before all events were handled
+     */
+    public boolean close(long timeout, TimeUnit unit) {
+        closed = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean drained = true;
+        while (hasPendingEvents()) {
+            if (deadline - System.nanoTime() <= 0 || Thread.currentThread().isInterrupted()) {
+                drained = false;
+                break;
+            }
+            LockSupport.parkNanos(this, 100_000);
+        }
+        stopping = true;
+        dispatcherThread.interrupt();
+        try {
+            dispatcherThread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        return drained;
+    }
+
+    /**
+     * Wait until dispatcher releases slot that was used one lap before.
+     *
+     * @return False if dispatcher has stopped and slot will never be released
+     */
+    private boolean awaitSlot(long seq) {
+        int spins = 0;
+        while (seq - slots.length >= consumed.get()) {
+            if (stopped) {
+                return false;
+            }
+            if (spins < PUBLISHER_SPINS) {
+                spins++;
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(this, 1_000);
+            }
+        }
+        return true;
+    }
+
+    private void dispatch() {
+        long next = 0;
+        int idleCount = 0;
+        // Handler can swallow interruption, so stop request is also kept in flag
+        while (!stopping && !Thread.currentThread().isInterrupted()) {
+            registry.expunge();
+
+            int idx = (int) next & mask;
+            if (available.get(idx) != next) {
+                if (waitStrategy.idle(idleCount)) {
+                    park(idx, next);
+                    idleCount = 0;
+                } else if (idleCount < Integer.MAX_VALUE) {
+                    idleCount++;
+                }
+                continue;
+            }
+
+            idleCount = 0;
+            Slot<E, H> slot = slots[idx];
+            if (slot.event == null) {
+                consumed.lazySet(++next);
+                continue;
+            }
+            JfrEvents.DispatchEvent jfr = dispatched(slot);
+            try {
+                notifySubscribers(slot.event, slot.success, slot.failure);
+            } finally {
+                slot.event = null;
+                slot.success = null;
+                slot.failure = null;
+                consumed.lazySet(++next);
+            }
+            if (jfr != null) {
+                JfrEvents.endDispatch(jfr);
+            }
+        }
+        if (!closed) {
+            logger.warn("Events dispatcher thread was interrupted, no more events will be processed");
+        }
+        release(next);
+    }
+
+    /**
+     * Release all slots once dispatcher has stopped, so publishers waiting for slot fail instead of waiting forever.
+     * Publisher races with release by CAS on the same slot, so event that was not dispatched is dropped either here
+     * or by its publisher.
+     */
+    private void release(long next) {
+        closed = true;
+        stopped = true;
+        for (int i = 0; i < slots.length; i++) {
+            if (available.getAndSet(i, RELEASED) >= next) {
+                Slot<E, H> slot = slots[i];
+                if (slot.event != null) {
+                    dropped(slot.event, slot.success, slot.failure);
+                }
+                slot.event = null;
+                slot.success = null;
+                slot.failure = null;
+            }
+        }
+    }
+
+    /**
+     * Report event that will never be dispatched to its failure callback, there is no handler in this case.
+     */
+    private void dropped(E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        if (metrics != null) {
+            metrics.eventDropped(event.getClass());
+        }
+        if (success instanceof PublishTracker) {
+            PublishTracker.rejected(success);
+        } else if (failure != null) {
+            try {
+                failure.accept(event, null, new RejectedExecutionException("Event " + event.getClass().getSimpleName() + " was dropped, bus is closed"));
+            } catch (Throwable th) {
+                logger.error("Failure callback fail for {}. {}", event.getClass().getSimpleName(), th.getMessage(), th);
+            }
+        }
+    }
+
+    /**
+     * Park dispatcher until publisher unparks it. Same protocol as in {@link EventBusAsync}.
+     */
+    private void park(int idx, long next) {
+        sleeping = true;
+        try {
+            if (available.get(idx) != next) {
+                LockSupport.park(this);
+            }
+        } finally {
+            sleeping = false;
+        }
+    }
+
+    private void notifySubscribers(E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        EventWrapper<E, H> ew = null;
+        try {
+            WeakHandler<H>[] hcls = registry.linked(event.getClass());
+            if (hcls != null) {
+                for (WeakHandler<H> wh : hcls) {
+                    H eh = wh.get();
+                    if (eh != null) {
+                        ew = callHandler(eh, ew, event, success, failure);
+                    }
+                }
+            }
+
+            for (WeakHandler<H> wh : registry.wildcards()) {
+                H eh = wh.get();
+                if (eh != null && eh.canHandle(event.getClass())) {
+                    ew = callHandler(eh, ew, event, success, failure);
+                }
+            }
+        } catch (Throwable th) {
+            logger.error("Event processing fail {}. {}", event.getClass().getSimpleName(), th.getMessage(), th);
+        } finally {
+            PublishTracker.dispatched(success);
+        }
+    }
+
+    /**
+     * Run handler in place or pass it to executor. Slot is reused once dispatcher moves on, so event is copied to
+     * task, or to wrapper (only once per event) if {@link #submitHandler} is overridden.
+     */
+    private EventWrapper<E, H> callHandler(H eh, EventWrapper<E, H> ew, E event, BiConsumer<E, H> success,
+                                           FailureConsumer<E, H> failure) {
+        PublishTracker.expect(success);
+        if (handlersExecutor == null) {
+            runHandlerWrapper(eh, event, success, failure);
+            return ew;
+        }
+        try {
+            if (customSubmit) {
+                if (ew == null) {
+                    ew = new EventWrapper<>(event, success, failure);
+                }
+                submitHandler(eh, ew);
+            } else {
+                execute(eh, event, success, failure);
+            }
+        } catch (RuntimeException ex) {
+            logger.error("Handler {} was not scheduled for event {}. {}", eh.getClass().getSimpleName(), event.getClass().getSimpleName(), ex.getMessage(), ex);
+            notCalled(eh, event, failure, ex);
+        }
+        return ew;
+    }
+
+    /**
+     * Pass handler call to executor. Dispatcher thread takes task from the pool, so steady dispatching does not
+     * allocate tasks.
+     */
+    private void execute(H eh, E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        HandlerTask task = Thread.currentThread() == dispatcherThread ? takeTask() : new HandlerTask(false);
+        task.handler = eh;
+        task.event = event;
+        task.success = success;
+        task.failure = failure;
+        running.incrementAndGet();
+        try {
+            handlersExecutor.execute(task);
+        } catch (RuntimeException ex) {
+            task.recycle();
+            running.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * Report handler call that executor refused to run, so publishAsync future is completed too.
+     */
+    private void notCalled(H eh, E event, FailureConsumer<E, H> failure, RuntimeException ex) {
+        if (failure != null) {
+            try {
+                failure.accept(event, eh, ex);
+            } catch (Throwable th) {
+                logger.error("Failure callback fail for {}. {}", event.getClass().getSimpleName(), th.getMessage(), th);
+            }
+        }
+    }
+
+    /**
+     * Take idle task or create new one. Only dispatcher thread takes tasks, so stack top can't be taken and put back
+     * between read and compare-and-set of another taker.
+     */
+    private HandlerTask takeTask() {
+        HandlerTask task;
+        do {
+            task = freeTasks.get();
+            if (task == null) {
+                return new HandlerTask(true);
+            }
+        } while (!freeTasks.compareAndSet(task, task.next));
+        freeTasksCount.decrementAndGet();
+        task.next = null;
+        return task;
+    }
+
+    private void releaseTask(HandlerTask task) {
+        if (freeTasksCount.get() >= TASK_POOL_SIZE) {
+            return;
+        }
+        freeTasksCount.incrementAndGet();
+        HandlerTask top;
+        do {
+            top = freeTasks.get();
+            task.next = top;
+        } while (!freeTasks.compareAndSet(top, task));
+    }
+
+    private void runHandlerWrapper(H handler, E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        JfrEvents.HandlerEvent jfr = JfrEvents.AVAILABLE
+                ? JfrEvents.beginHandler(handler.getClass(), event.getClass(), 1) : null;
+        boolean handled = false;
+        try {
+            runHandler(handler, event);
+            handled = true;
+            handlerCompleted(handler, start, jfr, false);
+            if (success != null) {
+                success.accept(event, handler);
+            }
+        } catch (Throwable th) {
+            if (!handled) {
+                handlerCompleted(handler, start, jfr, true);
+            }
+            logger.error("Handler {} fail on event {}. {}", handler.getClass().getSimpleName(), event.getClass().getSimpleName(), th.getMessage(), th);
+            if (failure != null) {
+                failure.accept(event, handler, th);
+            }
+        }
+    }
+
+    /**
+     * Report that event left the ring.
+     *
+     * @return JFR event to finish once handlers are notified or null
+     */
+    private JfrEvents.DispatchEvent dispatched(Slot<E, H> slot) {
+        if (metrics == null && !JfrEvents.AVAILABLE) {
+            return null;
+        }
+        long queued = slot.publishedNanos == 0 ? -1 : System.nanoTime() - slot.publishedNanos;
+        if (metrics != null) {
+            metrics.eventDispatched(slot.event.getClass(), queued);
+        }
+        return JfrEvents.AVAILABLE ? JfrEvents.beginDispatch(slot.event.getClass(), 1, queued) : null;
+    }
+
+    private void handlerCompleted(H handler, long start, JfrEvents.HandlerEvent jfr, boolean failed) {
+        if (metrics != null) {
+            metrics.handlerCompleted(handler.getClass(), System.nanoTime() - start, failed);
+        }
+        if (jfr != null) {
+            JfrEvents.endHandler(jfr, failed);
+        }
+    }
+
+    /**
+     * Handler call passed to executor. Executed as plain runnable, so executor does not wrap it to future. Pooled
+     * task goes back to the pool once handler returns.
+     */
+    private final class HandlerTask implements Runnable {
+
+        private final boolean pooled;
+
+        private HandlerTask next;
+
+        private H handler;
+
+        private E event;
+
+        private BiConsumer<E, H> success;
+
+        private FailureConsumer<E, H> failure;
+
+        HandlerTask(boolean pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public void run() {
+            try {
+                runHandlerWrapper(handler, event, success, failure);
+            } finally {
+                recycle();
+                running.decrementAndGet();
+            }
+        }
+
+        void recycle() {
+            handler = null;
+            event = null;
+            success = null;
+            failure = null;
+            if (pooled) {
+                releaseTask(this);
+            }
+        }
+    }
+
+    /**
+     * Reusable ring slot. Fields are published to dispatcher by volatile write of slot sequence.
+     */
+    private static final class Slot<E extends EventBusEvent, H extends EventBusHandler<?>> {
+
+        E event;
+
+        BiConsumer<E, H> success;
+
+        FailureConsumer<E, H> failure;
+
+        long publishedNanos;
+    }
+}
@@ -26,29 +26,34 @@ package io.github.jneat.minibus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.ref.ReferenceQueue;
-import java.util.Collections;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 
 /**
  * Simple event bus with no background threads, if you have few handlers or do
  * not want to have background threads. All
- * consumers will be called directly during event publishing. Publishing event
- * handlers complexity is O(N) we just do
- * linear search without optimizations.
+ * consumers will be called directly during event publishing.
+ * <p>
+ * Handlers with linked class are kept in per event class copy-on-write arrays, so publishing only touches
+ * handlers of event class plus handlers that rely on {@link EventBusHandler#canHandle}.
  */
 public class EventBusSimple<E extends EventBusEvent, H extends EventBusHandler<?>> implements EventBus<E, H> {
 
     private static final Logger logger = LoggerFactory.getLogger(EventBusSimple.class);
 
-    private final ReferenceQueue<H> gcQueue = new ReferenceQueue<H>();
-
     private final AtomicInteger processing = new AtomicInteger();
 
-    private final Set<WeakHandler<H>> handlers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final HandlersRegistry<H> registry = new HandlersRegistry<>();
+
+    private final EventBusMetrics metrics;
+
+    private final StickyEvents<E> sticky = new StickyEvents<>(StickyEvents.DEFAULT_CAPACITY);
 
     /**
      * CAN OVERRIDE THIS METHOD. This actually runs handler. You can add some hooks
@@ -58,14 +63,59 @@ public class EventBusSimple<E extends EventBusEvent, H extends EventBusHandler<?
         h.handleEvent(e);
     }
 
+    public EventBusSimple() {
+        this(null);
+    }
+
+    /**
+     * @param metrics Listener of publishing and handler calls or null. Events are dispatched right away, so queue
+     *                latency is always 0.
+     */
+    public EventBusSimple(EventBusMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     public void subscribe(H subscriber) {
-        handlers.add(new WeakHandler<>(subscriber, gcQueue));
+        registry.subscribe(subscriber);
+    }
+
+    /**
+     * Sticky events are passed to new subscriber in current thread.
+     */
+    @Override
+    public void subscribe(H subscriber, boolean sticky) {
+        registry.subscribe(subscriber);
+        if (sticky) {
+            for (E event : this.sticky.snapshot()) {
+                if (registry.find(event.getClass(), subscriber) != null) {
+                    runHandlerWrapper(subscriber, event, null, null);
+                }
+            }
+        }
     }
 
     @Override
     public void unsubscribe(H subscriber) {
-        handlers.remove(new WeakHandler<>(subscriber, gcQueue));
+        registry.unsubscribe(subscriber);
+    }
+
+    @Override
+    public void publishSticky(E event) {
+        if (event != null) {
+            sticky.put(event);
+            publish(event);
+        }
+    }
+
+    @Override
+    public <T extends E> T getStickyEvent(Class<T> cls) {
+        return sticky.get(cls);
+    }
+
+    @Override
+    public <T extends E> T removeStickyEvent(Class<T> cls) {
+        return sticky.remove(cls);
     }
 
     @Override
@@ -80,7 +130,43 @@ public class EventBusSimple<E extends EventBusEvent, H extends EventBusHandler<?
         }
         processing.incrementAndGet();
         try {
-            processEvent(new EventWrapper<>(event, success, failure));
+            registry.expunge();
+            published(event);
+            notifySubscribers(event, success, failure);
+        } finally {
+            processing.decrementAndGet();
+        }
+    }
+
+    /**
+     * Handlers run in publisher thread, so returned future is already completed.
+     */
+    @Override
+    public CompletableFuture<PublishResult<E, H>> publishAsync(E event) {
+        PublishTracker<E, H> tracker = new PublishTracker<>(event);
+        publish(event, tracker, tracker);
+        PublishTracker.dispatched(tracker);
+        return tracker.future();
+    }
+
+    /**
+     * Handlers are looked up once per event class in the batch.
+     */
+    @Override
+    public void publishAll(Collection<? extends E> events, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        processing.incrementAndGet();
+        try {
+            registry.expunge();
+            Map<Class<?>, List<H>> resolved = new HashMap<>();
+            for (E event : events) {
+                if (event == null) {
+                    continue;
+                }
+                published(event);
+                for (H eh : resolved.computeIfAbsent(event.getClass(), this::findHandlers)) {
+                    runHandlerWrapper(eh, event, success, failure);
+                }
+            }
         } finally {
             processing.decrementAndGet();
         }
@@ -91,52 +177,110 @@ public class EventBusSimple<E extends EventBusEvent, H extends EventBusHandler<?
         return processing.get() > 0;
     }
 
-    @SuppressWarnings("unchecked")
-    private void processEvent(EventWrapper<E, H> ew) {
-        WeakHandler<H> wh;
-        // noinspection unchecked
-        while ((wh = (WeakHandler<H>) gcQueue.poll()) != null) {
-            handlers.remove(wh);
+    private void published(E event) {
+        if (metrics != null) {
+            metrics.eventPublished(event.getClass());
+            metrics.eventDispatched(event.getClass(), 0);
         }
-        if (ew != null) {
-            notifySubscribers(ew);
+        if (JfrEvents.AVAILABLE) {
+            JfrEvents.published(event.getClass());
         }
     }
 
-    private void notifySubscribers(EventWrapper<E, H> ew) {
-        for (WeakHandler<H> wh : handlers) {
+    private void notifySubscribers(E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        Class<? extends EventBusEvent> cls = event.getClass();
+        WeakHandler<H>[] hcls = registry.linked(cls);
+        if (hcls != null) {
+            for (WeakHandler<H> wh : hcls) {
+                H eh = wh.get();
+                if (eh == null) {
+                    continue;
+                }
+
+                try {
+                    runHandlerWrapper(eh, event, success, failure);
+                } catch (Throwable th) {
+                    logger.error("Event processing fail {}. {}", cls.getSimpleName(), th.getMessage(), th);
+                }
+            }
+        }
+
+        for (WeakHandler<H> wh : registry.wildcards()) {
             H eh = wh.get();
             if (eh == null) {
                 continue;
             }
 
             try {
-                if (eh.getLinkedClass() == null) {
-                    if (eh.canHandle(ew.event.getClass())) {
-                        runHandlerWrapper(eh, ew);
-                    }
-                } else if (eh.getLinkedClass().equals(ew.event.getClass())) {
-                    runHandlerWrapper(eh, ew);
+                if (eh.canHandle(cls)) {
+                    runHandlerWrapper(eh, event, success, failure);
                 }
             } catch (Throwable th) {
-                logger.error("Event processing fail {}. {}", ew.event.getClass().getSimpleName(), th.getMessage(), th);
+                logger.error("Event processing fail {}. {}", cls.getSimpleName(), th.getMessage(), th);
             }
         }
     }
 
-    private void runHandlerWrapper(H eh, EventWrapper<E, H> ew) {
+    private List<H> findHandlers(Class<?> cls) {
+        List<H> found = new ArrayList<>();
+        WeakHandler<H>[] hcls = registry.linked(cls);
+        if (hcls != null) {
+            for (WeakHandler<H> wh : hcls) {
+                H eh = wh.get();
+                if (eh != null) {
+                    found.add(eh);
+                }
+            }
+        }
+
+        for (WeakHandler<H> wh : registry.wildcards()) {
+            H eh = wh.get();
+            if (eh == null) {
+                continue;
+            }
+
+            try {
+                if (eh.canHandle(cls.asSubclass(EventBusEvent.class))) {
+                    found.add(eh);
+                }
+            } catch (Throwable th) {
+                logger.error("Event processing fail {}. {}", cls.getSimpleName(), th.getMessage(), th);
+            }
+        }
+        return found;
+    }
+
+    private void runHandlerWrapper(H eh, E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        PublishTracker.expect(success);
+        long start = metrics == null ? 0 : System.nanoTime();
+        JfrEvents.HandlerEvent jfr = JfrEvents.AVAILABLE
+                ? JfrEvents.beginHandler(eh.getClass(), event.getClass(), 1) : null;
+        boolean handled = false;
         try {
-            runHandler(eh, ew.getEvent());
-            if (ew.success != null) {
-                ew.success.accept(ew.event, eh);
+            runHandler(eh, event);
+            handled = true;
+            handlerCompleted(eh, start, jfr, false);
+            if (success != null) {
+                success.accept(event, eh);
             }
         } catch (Throwable ex) {
-            logger.error("Handler processing fail for {}. {}", ew.event.getClass().getSimpleName(), ex.getMessage(),
+            if (!handled) {
+                handlerCompleted(eh, start, jfr, true);
+            }
+            logger.error("Handler processing fail for {}. {}", event.getClass().getSimpleName(), ex.getMessage(),
                     ex);
-            if (ew.failure != null) {
-                ew.failure.accept(ew.event, eh, ex);
+            if (failure != null) {
+                failure.accept(event, eh, ex);
             }
         }
     }
 
+    private void handlerCompleted(H handler, long start, JfrEvents.HandlerEvent jfr, boolean failed) {
+        if (metrics != null) {
+            metrics.handlerCompleted(handler.getClass(), System.nanoTime() - start, failed);
+        }
+        if (jfr != null) {
+            JfrEvents.endHandler(jfr, failed);
+        }
+    }
 }
@@ -33,6 +33,11 @@ public class EventWrapper<E extends EventBusEvent, H extends EventBusHandler<?>>
 
     protected final FailureConsumer<E, H> failure;
 
+    /**
+     * Publishing time, set only if bus has metrics listener.
+     */
+    long publishedNanos;
+
     public EventWrapper(
         E event,
         BiConsumer<E, H> success,
@@ -23,6 +23,10 @@
  */
 package io.github.jneat.minibus;
 
+/**
+ * Callback of event that failed in handler. Handler is null if bus dropped event before dispatching it, e.g. when
+ * bounded queue is full or event was replaced by conflation.
+ */
 @FunctionalInterface
 public interface FailureConsumer<E extends EventBusEvent, H extends EventBusHandler<?>> {
 
@@ -0,0 +1,60 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors suitable for running event handlers in {@link EventBusAsync}.
+ * <p>
+ * Library is packed as multi-release jar. On Java 21+ {@link #newThreadPerHandler()} starts new virtual thread for
+ * each event/handler call, so handlers blocked on I/O cost almost nothing and tens of thousands of them can be in
+ * flight at once. On older JVMs it falls back to CachedThreadPool, which is the default for {@link EventBusAsync}.
+ * <p>
+ * Virtual thread is pinned to its carrier thread while it blocks inside {@code synchronized} block or method
+ * (JDK 21-23), and too many pinned threads starve the whole executor. Bus itself does not hold monitors while calling
+ * handlers, but handlers doing blocking I/O should guard shared state with {@link java.util.concurrent.locks.Lock}
+ * instead of {@code synchronized}. Enabling {@link EventBusAsyncConfig#orderedHandlers} also removes most of the
+ * reasons to lock inside handlers.
+ */
+public final class HandlerExecutors {
+
+    private HandlerExecutors() {
+    }
+
+    /**
+     * Executor that runs each handler call in own thread: virtual thread on Java 21+, CachedThreadPool otherwise.
+     */
+    public static ExecutorService newThreadPerHandler() {
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * @return True if {@link #newThreadPerHandler()} uses virtual threads on current JVM
+     */
+    public static boolean isVirtual() {
+        return false;
+    }
+}
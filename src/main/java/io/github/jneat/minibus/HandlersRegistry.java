@@ -0,0 +1,259 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps weak links to subscribed handlers. Handlers with linked class are stored in hash map using
+ * event class as key, other handlers are stored in separate array and asked with
+ * {@link EventBusHandler#canHandle} for each event.
+ * <p>
+ * Handler arrays are copy-on-write snapshots: subscribe, unsubscribe and removal of garbage collected handlers
+ * build new array under the lock, while dispatching threads just read current array without locks or iterators.
+ * <p>
+ * Handlers that declare {@link EventBusHandler#isCanHandleStable} or {@link EventBusHandler#isHandlingSubtypes}
+ * are resolved only once per concrete event class. The result is cached in {@link ClassValue} together with linked
+ * handlers of that class and recomputed after subscription change.
+ */
+class HandlersRegistry<H extends EventBusHandler<?>> {
+
+    private static final Logger logger = LoggerFactory.getLogger(HandlersRegistry.class);
+
+    @SuppressWarnings("rawtypes")
+    private static final WeakHandler[] EMPTY = new WeakHandler[0];
+
+    private final ReferenceQueue<H> gcQueue = new ReferenceQueue<>();
+
+    private final Map<Class<?>, WeakHandler<H>[]> handlersCls = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private volatile WeakHandler<H>[] handlers = EMPTY;
+
+    private volatile Generation<H> generation = new Generation<>(empty());
+
+    private final ClassValue<Resolved<H>> resolved = new ClassValue<Resolved<H>>() {
+        @Override
+        protected Resolved<H> computeValue(Class<?> type) {
+            return new Resolved<>();
+        }
+    };
+
+    synchronized void subscribe(H subscriber) {
+        WeakHandler<H> wh = new WeakHandler<>(subscriber, gcQueue);
+        Class<?> cls = wh.getHandlerTypeClass();
+        if (isResolvable(wh)) {
+            generation = new Generation<>(add(generation.resolvable, wh));
+        } else if (cls == null) {
+            handlers = add(handlers, wh);
+        } else {
+            WeakHandler<H>[] hs = handlersCls.get(cls);
+            handlersCls.put(cls, hs == null ? add(empty(), wh) : add(hs, wh));
+            generation = new Generation<>(generation.resolvable);
+        }
+    }
+
+    synchronized void unsubscribe(H subscriber) {
+        remove(new WeakHandler<>(subscriber, gcQueue), false);
+    }
+
+    /**
+     * Remove links to handlers that were garbage collected.
+     */
+    void expunge() {
+        WeakHandler<?> wh;
+        while ((wh = (WeakHandler<?>) gcQueue.poll()) != null) {
+            synchronized (this) {
+                remove(wh, true);
+            }
+        }
+    }
+
+    /**
+     * Handlers linked to exact event class, handlers linked to its supertypes and stable wildcard handlers that
+     * accept this class.
+     *
+     * @return Handlers snapshot, null or empty if there are no handlers for this class
+     */
+    WeakHandler<H>[] linked(Class<?> cls) {
+        Generation<H> g = generation;
+        if (g.resolvable.length == 0) {
+            return handlersCls.get(cls);
+        }
+        Resolved<H> r = resolved.get(cls);
+        Resolved.Entry<H> e = r.entry;
+        if (e == null || e.generation != g) {
+            // Concurrent lookups may compute the same entry twice, entry of old generation is just recomputed later
+            e = new Resolved.Entry<>(g, resolve(cls, g.resolvable));
+            r.entry = e;
+        }
+        return e.handlers;
+    }
+
+    /**
+     * Handlers without linked class, that must be asked with {@link EventBusHandler#canHandle} for each event.
+     */
+    WeakHandler<H>[] wildcards() {
+        return handlers;
+    }
+
+    /**
+     * Find link of subscribed handler if it accepts events of given class.
+     *
+     * @return Handler link or null
+     */
+    WeakHandler<H> find(Class<? extends EventBusEvent> cls, H subscriber) {
+        WeakHandler<H>[] hcls = linked(cls);
+        if (hcls != null) {
+            for (WeakHandler<H> wh : hcls) {
+                if (wh.get() == subscriber) {
+                    return wh;
+                }
+            }
+        }
+        for (WeakHandler<H> wh : handlers) {
+            if (wh.get() == subscriber) {
+                return subscriber.canHandle(cls) ? wh : null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isResolvable(WeakHandler<?> wh) {
+        return wh.getHandlerTypeClass() == null ? wh.isStable() : wh.isSubtypes();
+    }
+
+    private WeakHandler<H>[] resolve(Class<?> cls, WeakHandler<H>[] resolvable) {
+        WeakHandler<H>[] hcls = handlersCls.get(cls);
+        List<WeakHandler<H>> found = new ArrayList<>();
+        if (hcls != null) {
+            found.addAll(Arrays.asList(hcls));
+        }
+        for (WeakHandler<H> wh : resolvable) {
+            H eh = wh.get();
+            Class<?> linked = wh.getHandlerTypeClass();
+            try {
+                if (eh == null) {
+                    continue;
+                }
+                if (linked != null ? linked.isAssignableFrom(cls) : eh.canHandle(cls.asSubclass(EventBusEvent.class))) {
+                    found.add(wh);
+                }
+            } catch (Throwable th) {
+                logger.error("Handler check fail {}. {}", cls.getSimpleName(), th.getMessage(), th);
+            }
+        }
+        return found.toArray(empty());
+    }
+
+    /**
+     * @param identity Garbage collected handlers can not be compared by referent, so they are removed by identity
+     */
+    private void remove(WeakHandler<?> wh, boolean identity) {
+        Class<?> cls = wh.getHandlerTypeClass();
+        if (isResolvable(wh)) {
+            generation = new Generation<>(remove(generation.resolvable, wh, identity));
+        } else if (cls == null) {
+            handlers = remove(handlers, wh, identity);
+        } else {
+            WeakHandler<H>[] hs = handlersCls.get(cls);
+            if (hs != null) {
+                hs = remove(hs, wh, identity);
+                if (hs.length == 0) {
+                    handlersCls.remove(cls);
+                } else {
+                    handlersCls.put(cls, hs);
+                }
+                generation = new Generation<>(generation.resolvable);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private WeakHandler<H>[] empty() {
+        return EMPTY;
+    }
+
+    private WeakHandler<H>[] add(WeakHandler<H>[] hs, WeakHandler<H> wh) {
+        for (WeakHandler<H> h : hs) {
+            if (h.equals(wh)) {
+                return hs;
+            }
+        }
+        WeakHandler<H>[] copy = Arrays.copyOf(hs, hs.length + 1);
+        copy[hs.length] = wh;
+        return copy;
+    }
+
+    private WeakHandler<H>[] remove(WeakHandler<H>[] hs, WeakHandler<?> wh, boolean identity) {
+        for (int i = 0; i < hs.length; i++) {
+            if (identity ? hs[i] == wh : hs[i].equals(wh)) {
+                WeakHandler<H>[] copy = Arrays.copyOf(hs, hs.length - 1);
+                System.arraycopy(hs, i + 1, copy, i, hs.length - i - 1);
+                return copy;
+            }
+        }
+        return hs;
+    }
+
+    /**
+     * Snapshot of handlers that are resolved per event class, replaced on each subscription change.
+     */
+    private static final class Generation<H extends EventBusHandler<?>> {
+
+        final WeakHandler<H>[] resolvable;
+
+        Generation(WeakHandler<H>[] resolvable) {
+            this.resolvable = resolvable;
+        }
+    }
+
+    /**
+     * Handlers resolved for one event class, valid while generation is current.
+     */
+    private static final class Resolved<H extends EventBusHandler<?>> {
+
+        volatile Entry<H> entry;
+
+        static final class Entry<H extends EventBusHandler<?>> {
+
+            final Generation<H> generation;
+
+            final WeakHandler<H>[] handlers;
+
+            Entry(Generation<H> generation, WeakHandler<H>[] handlers) {
+                this.generation = generation;
+                this.handlers = handlers;
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of event buses. They are turned on and off with usual JFR settings, e.g.
+ * {@code jfr configure +io.github.jneat.minibus.Dispatch#enabled=true}. Event objects are created only while event
+ * type is recorded, so when recording is off cost is a single check per call even before JIT kicks in.
+ * <p>
+ * JFR classes are touched only if {@link #AVAILABLE}, so bus still works on runtime images without jdk.jfr module.
+ */
+final class JfrEvents {
+
+    static final boolean AVAILABLE = isAvailable();
+
+    private JfrEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, JfrEvents.class.getClassLoader());
+            return !Boolean.getBoolean("minibus.jfr.disabled");
+        } catch (Throwable th) {
+            return false;
+        }
+    }
+
+    static void published(Class<?> eventClass) {
+        if (!Types.PUBLISH.isEnabled()) {
+            return;
+        }
+        PublishEvent e = new PublishEvent();
+        if (e.shouldCommit()) {
+            e.eventClass = eventClass;
+            e.commit();
+        }
+    }
+
+    /**
+     * Publishers record publishing time only if somebody is interested in it.
+     */
+    static boolean isDispatchEnabled() {
+        return Types.DISPATCH.isEnabled();
+    }
+
+    /**
+     * @param queuedNanos Time event spent in queue or -1 if it is unknown
+     * @return Started event or null if it is not recorded
+     */
+    static DispatchEvent beginDispatch(Class<?> eventClass, int events, long queuedNanos) {
+        if (!Types.DISPATCH.isEnabled()) {
+            return null;
+        }
+        DispatchEvent e = new DispatchEvent();
+        e.eventClass = eventClass;
+        e.events = events;
+        e.queueTime = queuedNanos;
+        e.begin();
+        return e;
+    }
+
+    static void endDispatch(DispatchEvent e) {
+        e.end();
+        if (e.shouldCommit()) {
+            e.commit();
+        }
+    }
+
+    /**
+     * @return Started event or null if it is not recorded
+     */
+    static HandlerEvent beginHandler(Class<?> handlerClass, Class<?> eventClass, int events) {
+        if (!Types.HANDLER.isEnabled()) {
+            return null;
+        }
+        HandlerEvent e = new HandlerEvent();
+        e.handlerClass = handlerClass;
+        e.eventClass = eventClass;
+        e.events = events;
+        e.begin();
+        return e;
+    }
+
+    static void endHandler(HandlerEvent e, boolean failed) {
+        e.end();
+        if (e.shouldCommit()) {
+            e.failed = failed;
+            e.commit();
+        }
+    }
+
+    /**
+     * Registered event types, initialized on first use.
+     */
+    private static final class Types {
+
+        static final EventType PUBLISH = EventType.getEventType(PublishEvent.class);
+
+        static final EventType DISPATCH = EventType.getEventType(DispatchEvent.class);
+
+        static final EventType HANDLER = EventType.getEventType(HandlerEvent.class);
+    }
+
+    @Name("io.github.jneat.minibus.Publish")
+    @Label("Event Published")
+    @Category("Minibus")
+    @Description("Event was published to event bus")
+    @Enabled(false)
+    static class PublishEvent extends Event {
+
+        @Label("Event Class")
+        Class<?> eventClass;
+    }
+
+    @Name("io.github.jneat.minibus.Dispatch")
+    @Label("Event Dispatched")
+    @Category("Minibus")
+    @Description("Dispatcher passes event to handlers")
+    @Enabled(false)
+    @StackTrace(false)
+    static class DispatchEvent extends Event {
+
+        @Label("Event Class")
+        Class<?> eventClass;
+
+        @Label("Events")
+        @Description("Number of events, more than one for published batch")
+        int events;
+
+        @Label("Queue Time")
+        @Description("Time between publishing and dispatching, -1 if unknown")
+        @Timespan
+        long queueTime;
+    }
+
+    @Name("io.github.jneat.minibus.Handler")
+    @Label("Handler Call")
+    @Category("Minibus")
+    @Description("Event handler execution")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static class HandlerEvent extends Event {
+
+        @Label("Handler Class")
+        Class<?> handlerClass;
+
+        @Label("Event Class")
+        Class<?> eventClass;
+
+        @Label("Events")
+        @Description("Number of events, more than one for batch handlers")
+        int events;
+
+        @Label("Failed")
+        boolean failed;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+/**
+ * Defines what bounded event bus does with published event when its queue is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Publisher waits until there is free space in the queue.
+     */
+    BLOCK,
+
+    /**
+     * Publisher waits until there is free space in the queue, but not longer than configured timeout.
+     * Event is dropped on timeout.
+     */
+    BLOCK_TIMEOUT,
+
+    /**
+     * Event being published is dropped.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Oldest event in the queue is dropped to free space for event being published.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Event bypasses the queue and handlers are called directly in publisher thread.
+     * This slows publishers down to the pace of handlers.
+     */
+    CALLER_RUNS
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of event published with {@link EventBus#publishAsync}: handlers that processed event successfully and
+ * handlers that failed with their errors.
+ */
+public final class PublishResult<E extends EventBusEvent, H extends EventBusHandler<?>> {
+
+    private final E event;
+
+    private final List<H> succeeded;
+
+    private final Map<H, Throwable> failures;
+
+    PublishResult(E event, List<H> succeeded, Map<H, Throwable> failures) {
+        this.event = event;
+        this.succeeded = Collections.unmodifiableList(succeeded);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    public E getEvent() {
+        return event;
+    }
+
+    /**
+     * @return Handlers that processed event without error, in completion order
+     */
+    public List<H> getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * @return Failed handlers with their errors, in completion order
+     */
+    public Map<H, Throwable> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return True if no handler failed
+     */
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+}
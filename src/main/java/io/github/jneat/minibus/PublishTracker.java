@@ -0,0 +1,211 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Success and failure callback of event published with {@link EventBus#publishAsync}. Bus reports each handler call
+ * with {@link #expect} before the handler runs and reports end of dispatching with {@link #dispatched}, future is
+ * completed when dispatching is over and every expected handler called back.
+ * <p>
+ * Bus that does not report handler calls but can count handlers is tracked with {@link #whenCalledBack}, bus that
+ * can't count them is tracked with {@link #whenIdle}, see {@link EventBus#publishAsync}.
+ */
+final class PublishTracker<E extends EventBusEvent, H extends EventBusHandler<?>>
+        implements BiConsumer<E, H>, FailureConsumer<E, H> {
+
+    private static final long IDLE_POLL_MIN_MILLIS = 1;
+
+    private static final long IDLE_POLL_MAX_MILLIS = 64;
+
+    private final E event;
+
+    /**
+     * False if bus does not report handler calls, callbacks are only collected then.
+     */
+    private final boolean counted;
+
+    /**
+     * Expected handler callbacks plus one for dispatching itself.
+     */
+    private final AtomicInteger pending = new AtomicInteger(1);
+
+    private final Queue<H> succeeded = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Map.Entry<H, Throwable>> failures = new ConcurrentLinkedQueue<>();
+
+    private final CompletableFuture<PublishResult<E, H>> future = new CompletableFuture<>();
+
+    PublishTracker(E event) {
+        this(event, true);
+    }
+
+    private PublishTracker(E event, boolean counted) {
+        this.event = event;
+        this.counted = counted;
+    }
+
+    /**
+     * Publish event to bus that knows nothing about trackers, but knows how many handlers it is going to call. Future
+     * is completed once each of them called back.
+     */
+    static <E extends EventBusEvent, H extends EventBusHandler<?>>
+    CompletableFuture<PublishResult<E, H>> whenCalledBack(EventBus<E, H> bus, E event, int handlers) {
+        PublishTracker<E, H> tracker = new PublishTracker<>(event);
+        tracker.pending.addAndGet(handlers);
+        bus.publish(event, tracker, tracker);
+        tracker.arrive();
+        return tracker.future;
+    }
+
+    /**
+     * Publish event to bus that knows nothing about trackers and can't count handlers. Callbacks are collected until
+     * bus reports that it has no pending events, polling interval grows while bus stays busy.
+     */
+    static <E extends EventBusEvent, H extends EventBusHandler<?>> CompletableFuture<PublishResult<E, H>> whenIdle(
+            EventBus<E, H> bus, E event) {
+        PublishTracker<E, H> tracker = new PublishTracker<>(event, false);
+        bus.publish(event, tracker, tracker);
+        tracker.completeWhenIdle(bus, IDLE_POLL_MIN_MILLIS);
+        return tracker.future;
+    }
+
+    CompletableFuture<PublishResult<E, H>> future() {
+        return future;
+    }
+
+    /**
+     * Count handler call if callback belongs to tracked event.
+     */
+    static void expect(BiConsumer<?, ?> success) {
+        if (success instanceof PublishTracker) {
+            ((PublishTracker<?, ?>) success).pending.incrementAndGet();
+        }
+    }
+
+    /**
+     * Report that all handlers of tracked event were called or scheduled.
+     */
+    static void dispatched(BiConsumer<?, ?> success) {
+        if (success instanceof PublishTracker) {
+            ((PublishTracker<?, ?>) success).arrive();
+        }
+    }
+
+    /**
+     * Report expected handler call that did not happen because handler was garbage collected in the meantime.
+     */
+    static void skipped(BiConsumer<?, ?> success) {
+        if (success instanceof PublishTracker) {
+            ((PublishTracker<?, ?>) success).arrive();
+        }
+    }
+
+    /**
+     * Fail tracked event that was dropped before dispatching.
+     */
+    static void rejected(BiConsumer<?, ?> success) {
+        if (success instanceof PublishTracker) {
+            PublishTracker<?, ?> tracker = (PublishTracker<?, ?>) success;
+            tracker.future.completeExceptionally(new RejectedExecutionException(
+                    "Event " + tracker.event.getClass().getSimpleName() + " was dropped"));
+        }
+    }
+
+    @Override
+    public void accept(E event, H handler) {
+        succeeded.add(handler);
+        if (counted) {
+            arrive();
+        }
+    }
+
+    @Override
+    public void accept(E event, H handler, Throwable th) {
+        if (handler == null && th instanceof RejectedExecutionException) {
+            // Bus dropped the event, see EventBus contract
+            future.completeExceptionally(th);
+            return;
+        }
+        failures.add(new AbstractMap.SimpleImmutableEntry<>(handler, th));
+        if (counted) {
+            arrive();
+        }
+    }
+
+    private void arrive() {
+        if (pending.decrementAndGet() == 0) {
+            complete();
+        }
+    }
+
+    private void completeWhenIdle(EventBus<?, ?> bus, long delay) {
+        try {
+            if (future.isDone()) {
+                return;
+            }
+            if (bus.hasPendingEvents()) {
+                long next = Math.min(delay * 2, IDLE_POLL_MAX_MILLIS);
+                IdlePoller.POLLER.schedule(() -> completeWhenIdle(bus, next), delay, TimeUnit.MILLISECONDS);
+            } else {
+                complete();
+            }
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+        }
+    }
+
+    private void complete() {
+        Map<H, Throwable> failed = new LinkedHashMap<>();
+        for (Map.Entry<H, Throwable> e : failures) {
+            failed.put(e.getKey(), e.getValue());
+        }
+        future.complete(new PublishResult<>(event, new ArrayList<>(succeeded), failed));
+    }
+
+    /**
+     * Lazily started daemon thread that polls buses tracked with {@link #whenIdle}.
+     */
+    private static final class IdlePoller {
+
+        static final ScheduledExecutorService POLLER = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "EventBus publish poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
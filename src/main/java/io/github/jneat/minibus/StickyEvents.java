@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The latest sticky event per event class. Cache is bounded, least recently published or read class is evicted.
+ */
+final class StickyEvents<E extends EventBusEvent> {
+
+    static final int DEFAULT_CAPACITY = 64;
+
+    private final Map<Class<?>, E> events;
+
+    StickyEvents(int capacity) {
+        this.events = new LinkedHashMap<Class<?>, E>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Class<?>, E> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized void put(E event) {
+        events.put(event.getClass(), event);
+    }
+
+    synchronized <T extends E> T get(Class<T> cls) {
+        return cls.cast(events.get(cls));
+    }
+
+    synchronized <T extends E> T remove(Class<T> cls) {
+        return cls.cast(events.remove(cls));
+    }
+
+    synchronized List<E> snapshot() {
+        return new ArrayList<>(events.values());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Handler that calls {@link Subscribe} annotated method of target object. Target is referenced weakly, so
+ * subscription lives as long as target object, same as for regular handlers.
+ * <p>
+ * Handlers are equal if they call the same method of the same target instance.
+ */
+public final class SubscriberHandler extends EventBusHandler<EventBusEvent> {
+
+    private final WeakReference<Object> target;
+
+    private final SubscriberMethod method;
+
+    private final SubscriberInvoker invoker;
+
+    private final int hash;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SubscriberHandler(Object target, SubscriberMethod method) {
+        super((Class) method.getEventClass());
+        this.target = new WeakReference<>(target);
+        this.method = method;
+        this.invoker = method.getInvoker();
+        this.hash = System.identityHashCode(target) * 31 + method.hashCode();
+    }
+
+    /**
+     * @return Target object or null if it was garbage collected
+     */
+    public Object getTarget() {
+        return target.get();
+    }
+
+    public SubscriberMethod getMethod() {
+        return method;
+    }
+
+    @Override
+    protected boolean isHandlingSubtypes() {
+        return method.isSubtypes();
+    }
+
+    @Override
+    public void handle(EventBusEvent event) throws Throwable {
+        Object t = target.get();
+        if (t != null) {
+            invoker.invoke(t, event);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SubscriberHandler)) {
+            return false;
+        }
+        SubscriberHandler other = (SubscriberHandler) obj;
+        Object t = target.get();
+        return t != null && t == other.target.get() && method.equals(other.method);
+    }
+}
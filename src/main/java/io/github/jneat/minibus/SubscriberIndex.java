@@ -0,0 +1,49 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+/**
+ * Build time index of handlers, lets event bus skip reflection while subscribing handlers.
+ * <p>
+ * Implementations are generated by minibus-processor annotation processor and loaded with
+ * {@link java.util.ServiceLoader}. Classes missing in index are resolved with reflection as usual.
+ */
+public interface SubscriberIndex {
+
+    /**
+     * @param handlerClass {@link EventBusHandler} subclass
+     * @return Event class of handler or null if handler class is not indexed
+     */
+    default Class<? extends EventBusEvent> getEventClass(Class<?> handlerClass) {
+        return null;
+    }
+
+    /**
+     * @param targetClass Class with {@link Subscribe} methods
+     * @return All subscribe methods of class including inherited ones or null if class is not indexed
+     */
+    default SubscriberMethod[] getSubscriberMethods(Class<?> targetClass) {
+        return null;
+    }
+}
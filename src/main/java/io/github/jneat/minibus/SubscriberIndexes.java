@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Subscriber indexes found on classpath, loaded on first use.
+ */
+final class SubscriberIndexes {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriberIndexes.class);
+
+    private static final int MAX_ERRORS = 100;
+
+    private static final SubscriberIndex[] INDEXES = load(ServiceLoader.load(SubscriberIndex.class));
+
+    private SubscriberIndexes() {
+    }
+
+    static Class<? extends EventBusEvent> getEventClass(Class<?> handlerClass) {
+        for (SubscriberIndex index : INDEXES) {
+            Class<? extends EventBusEvent> cls = index.getEventClass(handlerClass);
+            if (cls != null) {
+                return cls;
+            }
+        }
+        return null;
+    }
+
+    static SubscriberMethod[] getSubscriberMethods(Class<?> targetClass) {
+        for (SubscriberIndex index : INDEXES) {
+            SubscriberMethod[] methods = index.getSubscriberMethods(targetClass);
+            if (methods != null) {
+                return methods;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Broken index (missing class, failing constructor) is skipped, reflection is used for its classes.
+     */
+    static SubscriberIndex[] load(ServiceLoader<SubscriberIndex> loader) {
+        List<SubscriberIndex> found = new ArrayList<>();
+        Iterator<SubscriberIndex> it = loader.iterator();
+        // Iterator moves on to the next provider after error, limit guards against one that can not recover
+        for (int errors = 0; errors < MAX_ERRORS; ) {
+            try {
+                if (!it.hasNext()) {
+                    break;
+                }
+                found.add(it.next());
+            } catch (ServiceConfigurationError err) {
+                errors++;
+                logger.error("Subscriber index loading fail, index skipped. {}", err.getMessage(), err);
+            }
+        }
+        return found.toArray(new SubscriberIndex[0]);
+    }
+}
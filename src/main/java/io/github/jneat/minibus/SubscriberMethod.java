@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import java.util.Objects;
+
+/**
+ * {@link Subscribe} method description together with invoker that calls it.
+ * Created by {@link Subscribers} at runtime or by generated {@link SubscriberIndex}.
+ */
+public final class SubscriberMethod {
+
+    private final Class<?> declaringClass;
+
+    private final String name;
+
+    private final Class<? extends EventBusEvent> eventClass;
+
+    private final boolean subtypes;
+
+    private final SubscriberInvoker invoker;
+
+    public SubscriberMethod(Class<?> declaringClass, String name, Class<? extends EventBusEvent> eventClass,
+                            boolean subtypes, SubscriberInvoker invoker) {
+        this.declaringClass = declaringClass;
+        this.name = name;
+        this.eventClass = eventClass;
+        this.subtypes = subtypes;
+        this.invoker = invoker;
+    }
+
+    public Class<?> getDeclaringClass() {
+        return declaringClass;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<? extends EventBusEvent> getEventClass() {
+        return eventClass;
+    }
+
+    public boolean isSubtypes() {
+        return subtypes;
+    }
+
+    public SubscriberInvoker getInvoker() {
+        return invoker;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(declaringClass, name, eventClass);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SubscriberMethod)) {
+            return false;
+        }
+        SubscriberMethod other = (SubscriberMethod) obj;
+        return declaringClass == other.declaringClass && name.equals(other.name) && eventClass == other.eventClass;
+    }
+}
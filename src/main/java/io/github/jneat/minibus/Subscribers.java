@@ -0,0 +1,183 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Subscribes {@link Subscribe} annotated methods of any object as event handlers.
+ * <p>
+ * Annotated methods are looked up once per class and for each of them direct invoker is generated with
+ * {@link LambdaMetafactory}, so calling handler costs the same as regular method call. Classes present in
+ * generated {@link SubscriberIndex} are not scanned at all. Subscription is weak:
+ * handlers are kept only while target object is reachable, after that they are removed from the bus.
+ * <pre>
+ * public class OrderService {
+ *     &#64;Subscribe
+ *     void onCreated(OrderCreated event) { ... }
+ * }
+ *
+ * Subscribers.subscribe(eventBus, orderService);
+ * </pre>
+ */
+public final class Subscribers {
+
+    private static final ClassValue<SubscriberMethod[]> METHODS = new ClassValue<SubscriberMethod[]>() {
+        @Override
+        protected SubscriberMethod[] computeValue(Class<?> type) {
+            return findMethods(type);
+        }
+    };
+
+    /**
+     * Keeps handlers reachable while their target is. Targets are matched by identity, equal targets must not share
+     * handlers bound to one of them.
+     */
+    private static final Map<WeakIdentityKey, SubscriberHandler[]> TARGETS = new HashMap<>();
+
+    private static final ReferenceQueue<Object> COLLECTED = new ReferenceQueue<>();
+
+    private Subscribers() {
+    }
+
+    /**
+     * Subscribe all {@link Subscribe} methods of target object.
+     *
+     * @throws IllegalArgumentException If some annotated method has wrong signature or is not accessible
+     */
+    public static void subscribe(EventBus<?, ? super SubscriberHandler> bus, Object target) {
+        for (SubscriberHandler h : handlers(target)) {
+            bus.subscribe(h);
+        }
+    }
+
+    /**
+     * Unsubscribe all {@link Subscribe} methods of target object.
+     */
+    public static void unsubscribe(EventBus<?, ? super SubscriberHandler> bus, Object target) {
+        for (SubscriberMethod sm : METHODS.get(target.getClass())) {
+            bus.unsubscribe(new SubscriberHandler(target, sm));
+        }
+    }
+
+    private static SubscriberHandler[] handlers(Object target) {
+        SubscriberMethod[] methods = METHODS.get(target.getClass());
+        synchronized (TARGETS) {
+            Reference<?> ref;
+            while ((ref = COLLECTED.poll()) != null) {
+                TARGETS.remove(ref);
+            }
+
+            SubscriberHandler[] found = TARGETS.get(new WeakIdentityKey(target, null));
+            if (found == null) {
+                found = new SubscriberHandler[methods.length];
+                for (int i = 0; i < methods.length; i++) {
+                    found[i] = new SubscriberHandler(target, methods[i]);
+                }
+                TARGETS.put(new WeakIdentityKey(target, COLLECTED), found);
+            }
+            return found;
+        }
+    }
+
+    private static SubscriberMethod[] findMethods(Class<?> type) {
+        SubscriberMethod[] indexed = SubscriberIndexes.getSubscriberMethods(type);
+        if (indexed != null) {
+            return indexed;
+        }
+
+        List<SubscriberMethod> found = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Method m : c.getDeclaredMethods()) {
+                if (!m.isAnnotationPresent(Subscribe.class) || m.isBridge() || m.isSynthetic()) {
+                    continue;
+                }
+                Class<?>[] params = m.getParameterTypes();
+                if (Modifier.isStatic(m.getModifiers()) || params.length != 1
+                        || !EventBusEvent.class.isAssignableFrom(params[0])) {
+                    throw new IllegalArgumentException(
+                            "Subscribe method must be non static with single event parameter: " + m);
+                }
+                // Overridden method is called through subclass invoker anyway
+                if (seen.add(m.getName() + ':' + params[0].getName())) {
+                    found.add(new SubscriberMethod(c, m.getName(), params[0].asSubclass(EventBusEvent.class),
+                            m.getAnnotation(Subscribe.class).subtypes(), invoker(m)));
+                }
+            }
+        }
+        return found.toArray(new SubscriberMethod[0]);
+    }
+
+    private static SubscriberInvoker invoker(Method m) {
+        MethodHandles.Lookup lookup;
+        MethodHandle mh;
+        try {
+            lookup = MethodHandles.privateLookupIn(m.getDeclaringClass(), MethodHandles.lookup());
+            mh = lookup.unreflect(m);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException("Subscribe method is not accessible: " + m, ex);
+        }
+
+        try {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "invoke",
+                    MethodType.methodType(SubscriberInvoker.class),
+                    MethodType.methodType(void.class, Object.class, Object.class),
+                    mh,
+                    MethodType.methodType(void.class, m.getDeclaringClass(), m.getParameterTypes()[0]));
+            return (SubscriberInvoker) site.getTarget().invoke();
+        } catch (Throwable th) {
+            // Lookup without full privilege access (e.g. class in named module) can not define lambda class
+            return new HandleInvoker(mh.asType(MethodType.methodType(void.class, Object.class, Object.class)));
+        }
+    }
+
+    private static final class HandleInvoker implements SubscriberInvoker {
+
+        private final MethodHandle mh;
+
+        HandleInvoker(MethodHandle mh) {
+            this.mh = mh;
+        }
+
+        @Override
+        public void invoke(Object target, Object event) throws Throwable {
+            mh.invokeExact(target, event);
+        }
+    }
+}
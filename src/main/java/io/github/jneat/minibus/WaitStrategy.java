@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus;
+
+/**
+ * Defines what event dispatcher thread does when there are no events to dispatch.
+ * <p>
+ * Dispatcher calls {@link #idle(int)} each time it finds the queue empty. Strategy may spin or yield
+ * and return false, so dispatcher checks the queue again, or return true so dispatcher parks until
+ * next event is published. Publishers wake dispatcher only when it is actually parked, thus the longer
+ * strategy stays awake the cheaper publishing is, at the cost of CPU time burned by dispatcher thread.
+ */
+@FunctionalInterface
+public interface WaitStrategy {
+
+    /**
+     * Called by dispatcher thread when there are no events in the queue.
+     *
+     * @param idleCount Number of empty checks since last dispatched event (starts from 0)
+     * @return True if dispatcher thread should park until next event, false to check queue again
+     */
+    boolean idle(int idleCount);
+
+    /**
+     * Park dispatcher thread right away. Lowest CPU usage, but every publish after idle period
+     * pays for thread wake up. This is the default.
+     */
+    static WaitStrategy blocking() {
+        return idleCount -> true;
+    }
+
+    /**
+     * Never park dispatcher thread. Lowest latency, but burns one CPU core all the time.
+     */
+    static WaitStrategy busySpin() {
+        return idleCount -> {
+            Thread.onSpinWait();
+            return false;
+        };
+    }
+
+    /**
+     * Spin first, then yield and finally park dispatcher thread.
+     *
+     * @param spins  How many checks to do with busy spin
+     * @param yields How many checks to do with {@link Thread#yield()} after spinning
+     */
+    static WaitStrategy spinYieldPark(int spins, int yields) {
+        if (spins < 0 || yields < 0) {
+            throw new IllegalArgumentException("Spins and yields must not be negative");
+        }
+        return idleCount -> {
+            if (idleCount < spins) {
+                Thread.onSpinWait();
+                return false;
+            }
+            if (idleCount - spins < yields) {
+                Thread.yield();
+                return false;
+            }
+            return true;
+        };
+    }
+}
@@ -25,26 +25,69 @@ package io.github.jneat.minibus;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Provide weak link wrapper for handler class and expose some generic handlers methods.
  */
 class WeakHandler<H extends EventBusHandler<?>> extends WeakReference<H> {
 
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<WeakHandler, Object> ATTACHMENT =
+            AtomicReferenceFieldUpdater.newUpdater(WeakHandler.class, Object.class, "attachment");
+
     private final int hash;
 
     private final Class<?> handlerTypeClass;
 
+    private final boolean stable;
+
+    private final boolean subtypes;
+
+    private volatile Object attachment;
+
     WeakHandler(H handler, ReferenceQueue<H> q) {
         super(handler, q);
         hash = handler.hashCode();
         handlerTypeClass = handler.getLinkedClass();
+        stable = handler.isCanHandleStable();
+        subtypes = handler.isHandlingSubtypes();
     }
 
     public Class<?> getHandlerTypeClass() {
         return handlerTypeClass;
     }
 
+    /**
+     * @see EventBusHandler#isCanHandleStable
+     */
+    boolean isStable() {
+        return stable;
+    }
+
+    /**
+     * @see EventBusHandler#isHandlingSubtypes
+     */
+    boolean isSubtypes() {
+        return subtypes;
+    }
+
+    /**
+     * State that event bus keeps together with handler link.
+     */
+    Object getAttachment() {
+        return attachment;
+    }
+
+    /**
+     * Set attachment if there is none yet.
+     *
+     * @return Attachment that is actually set
+     */
+    Object attach(Object value) {
+        return ATTACHMENT.compareAndSet(this, null, value) ? value : attachment;
+    }
+
     @Override
     public int hashCode() {
         return hash;
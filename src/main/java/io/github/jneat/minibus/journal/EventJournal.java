@@ -0,0 +1,448 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only journal of binary records stored in memory mapped segment files. Each record gets an offset, when record
+ * is processed it must be {@link #acknowledge acknowledged}. Offset of the first unacknowledged record is saved to
+ * checkpoint file periodically, so after restart {@link #replay} returns records that were not acknowledged before
+ * JVM stopped. Segments that contain only acknowledged records are deleted.
+ * <p>
+ * Record is stored as payload length, CRC32 of payload and payload. Record torn by crash fails CRC check and is
+ * discarded together with the rest of segment on recovery.
+ */
+public class EventJournal implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    /**
+     * Payload length and CRC32.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Length that marks the rest of segment as unused, written when next record does not fit.
+     */
+    private static final int END_OF_SEGMENT = -1;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final FsyncPolicy fsyncPolicy;
+
+    /**
+     * Segments by base offset, guarded by this.
+     */
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+
+    private final ConcurrentSkipListSet<Long> pending = new ConcurrentSkipListSet<>();
+
+    /**
+     * Offsets of unacknowledged records found on open.
+     */
+    private final List<Long> recovered = new ArrayList<>();
+
+    private final Object syncLock = new Object();
+
+    private final FileChannel checkpointChannel;
+
+    private final ScheduledThreadPoolExecutor flusher;
+
+    private Segment current;
+
+    private long writeOffset;
+
+    private boolean closed;
+
+    private boolean replayed;
+
+    private volatile long syncedOffset;
+
+    private volatile long savedCheckpoint;
+
+    /**
+     * Open journal in configured directory, recovering segments and checkpoint left by previous run.
+     */
+    public EventJournal(JournalConfig config) throws IOException {
+        this.directory = config.directory;
+        this.segmentSize = config.segmentSize;
+        this.fsyncPolicy = config.fsyncPolicy;
+
+        Files.createDirectories(directory);
+        checkpointChannel = FileChannel.open(directory.resolve(CHECKPOINT_FILE), CREATE, READ, WRITE);
+        long checkpoint = readCheckpoint();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(base, Segment.open(file, base, Math.toIntExact(Files.size(file))));
+            }
+        }
+        recover(checkpoint);
+        this.syncedOffset = writeOffset;
+
+        flusher = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "EventJournal flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, config.checkpointIntervalMillis, config.checkpointIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            flusher.scheduleWithFixedDelay(() -> sync(Long.MAX_VALUE), config.fsyncIntervalMillis,
+                    config.fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Append record. With {@link FsyncPolicy#ALWAYS} returns after record is forced to disk.
+     *
+     * @param data Record payload, must not be empty
+     * @return Record offset to acknowledge once record is processed
+     */
+    public long append(byte[] data) throws IOException {
+        if (data.length == 0 || data.length > segmentSize - HEADER_SIZE) {
+            throw new IllegalArgumentException("Record of " + data.length + " bytes does not fit journal segment");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        int recordSize = HEADER_SIZE + data.length;
+        long offset;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            int pos = (int) (writeOffset - current.base);
+            if (pos + recordSize > current.size) {
+                roll(pos);
+                pos = 0;
+            }
+            MappedByteBuffer buffer = current.buffer;
+            buffer.position(pos + HEADER_SIZE);
+            buffer.put(data);
+            buffer.putInt(pos + 4, (int) crc.getValue());
+            buffer.putInt(pos, data.length);
+            offset = writeOffset;
+            writeOffset += recordSize;
+            pending.add(offset);
+        }
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            sync(offset + recordSize);
+        }
+        return offset;
+    }
+
+    /**
+     * Mark record as processed. Records can be acknowledged in any order.
+     */
+    public void acknowledge(long offset) {
+        pending.remove(offset);
+    }
+
+    /**
+     * Pass records that were not acknowledged in previous run to consumer with their offsets. Records stay
+     * unacknowledged until consumer acknowledges them. Can be called only once.
+     *
+     * @return Number of replayed records
+     */
+    public int replay(ObjLongConsumer<byte[]> consumer) {
+        synchronized (this) {
+            if (replayed) {
+                throw new IllegalStateException("Journal was already replayed");
+            }
+            replayed = true;
+        }
+        for (long offset : recovered) {
+            consumer.accept(read(offset), offset);
+        }
+        int count = recovered.size();
+        recovered.clear();
+        return count;
+    }
+
+    /**
+     * @return Offset of the first unacknowledged record or end of journal if all records are acknowledged
+     */
+    public long checkpoint() {
+        long end;
+        synchronized (this) {
+            end = writeOffset;
+        }
+        Long first = pending.ceiling(Long.MIN_VALUE);
+        return first == null ? end : Math.min(first, end);
+    }
+
+    /**
+     * Force records to disk, save checkpoint and stop flusher thread.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (fsyncPolicy != FsyncPolicy.NONE) {
+            current.buffer.force();
+        }
+        saveCheckpoint();
+        checkpointChannel.close();
+    }
+
+    private long readCheckpoint() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        return checkpointChannel.read(buf, 0) == 8 ? buf.getLong(0) : 0;
+    }
+
+    /**
+     * Collect unacknowledged records after checkpoint and find write position in the last segment.
+     */
+    private void recover(long checkpoint) throws IOException {
+        if (segments.isEmpty()) {
+            current = createSegment(checkpoint);
+            writeOffset = checkpoint;
+            return;
+        }
+        for (Segment segment : segments.values()) {
+            if (segment.base + segment.size <= checkpoint && segment != segments.lastEntry().getValue()) {
+                continue;
+            }
+            int from = (int) Math.min(segment.size, Math.max(0, checkpoint - segment.base));
+            int end = scan(segment, from, recovered);
+            current = segment;
+            writeOffset = segment.base + end;
+        }
+        pending.addAll(recovered);
+        if (!recovered.isEmpty()) {
+            logger.info("Journal {} has {} unacknowledged records", directory, recovered.size());
+        }
+    }
+
+    /**
+     * Read valid records of segment starting from given position, discard torn or corrupted tail.
+     *
+     * @return Position after the last valid record or segment size if segment is full
+     */
+    private static int scan(Segment segment, int pos, List<Long> offsets) {
+        ByteBuffer buf = segment.buffer.duplicate();
+        CRC32 crc = new CRC32();
+        while (pos + HEADER_SIZE <= segment.size) {
+            int length = buf.getInt(pos);
+            if (length == END_OF_SEGMENT) {
+                return segment.size;
+            }
+            if (length == 0) {
+                return pos;
+            }
+            if (length < 0 || length > segment.size - pos - HEADER_SIZE) {
+                break;
+            }
+            buf.limit(pos + HEADER_SIZE + length).position(pos + HEADER_SIZE);
+            crc.reset();
+            crc.update(buf);
+            buf.clear();
+            if ((int) crc.getValue() != buf.getInt(pos + 4)) {
+                break;
+            }
+            offsets.add(segment.base + pos);
+            pos += HEADER_SIZE + length;
+        }
+        if (pos + 4 <= segment.size && buf.getInt(pos) != 0) {
+            logger.warn("Journal segment {} has corrupted record at {}, discarding rest of segment", segment.path, pos);
+            for (int i = pos; i < segment.size; i++) {
+                buf.put(i, (byte) 0);
+            }
+        }
+        return pos;
+    }
+
+    private byte[] read(long offset) {
+        Segment segment;
+        synchronized (this) {
+            segment = segments.floorEntry(offset).getValue();
+        }
+        ByteBuffer buf = segment.buffer.duplicate();
+        int pos = (int) (offset - segment.base);
+        byte[] data = new byte[buf.getInt(pos)];
+        buf.position(pos + HEADER_SIZE);
+        buf.get(data);
+        return data;
+    }
+
+    /**
+     * Mark the rest of current segment unused and continue in new one. Called under lock.
+     */
+    private void roll(int pos) throws IOException {
+        if (pos + 4 <= current.size) {
+            current.buffer.putInt(pos, END_OF_SEGMENT);
+        }
+        if (fsyncPolicy != FsyncPolicy.NONE) {
+            current.buffer.force();
+        }
+        long base = current.base + current.size;
+        current = createSegment(base);
+        writeOffset = base;
+    }
+
+    private Segment createSegment(long base) throws IOException {
+        Segment segment = Segment.open(directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX)), base, segmentSize);
+        segments.put(base, segment);
+        return segment;
+    }
+
+    /**
+     * Force records written up to given offset. Append that comes late finds its record already forced by another
+     * thread and does not force again.
+     */
+    private void sync(long end) {
+        if (syncedOffset >= end) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedOffset >= end) {
+                return;
+            }
+            MappedByteBuffer buffer;
+            long target;
+            synchronized (this) {
+                buffer = current.buffer;
+                target = writeOffset;
+            }
+            buffer.force();
+            syncedOffset = target;
+        }
+    }
+
+    private void flush() {
+        try {
+            saveCheckpoint();
+        } catch (Throwable th) {
+            logger.error("Journal checkpoint fail {}. {}", directory, th.getMessage(), th);
+        }
+    }
+
+    private void saveCheckpoint() throws IOException {
+        long checkpoint = checkpoint();
+        if (checkpoint == savedCheckpoint) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        buf.putLong(0, checkpoint);
+        checkpointChannel.write(buf, 0);
+        if (fsyncPolicy != FsyncPolicy.NONE) {
+            checkpointChannel.force(false);
+        }
+        savedCheckpoint = checkpoint;
+        deleteSegments(checkpoint);
+    }
+
+    /**
+     * Delete segments that contain only acknowledged records.
+     */
+    private void deleteSegments(long checkpoint) {
+        List<Segment> obsolete = new ArrayList<>();
+        synchronized (this) {
+            while (segments.size() > 1) {
+                Map.Entry<Long, Segment> first = segments.firstEntry();
+                Segment segment = first.getValue();
+                if (segment == current || segment.base + segment.size > checkpoint) {
+                    break;
+                }
+                segments.remove(first.getKey());
+                obsolete.add(segment);
+            }
+        }
+        for (Segment segment : obsolete) {
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException ex) {
+                logger.warn("Can not delete journal segment {}. {}", segment.path, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Memory mapped segment file.
+     */
+    private static final class Segment {
+
+        private final Path path;
+
+        private final long base;
+
+        private final int size;
+
+        private final MappedByteBuffer buffer;
+
+        private Segment(Path path, long base, int size, MappedByteBuffer buffer) {
+            this.path = path;
+            this.base = base;
+            this.size = size;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path path, long base, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE)) {
+                return new Segment(path, base, size, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus.journal;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for {@link EventJournal}. Only directory is required.
+ * <pre>{@code
+ * new EventJournal(new JournalConfig(Paths.get("/var/lib/app/events"))
+ *     .segmentSize(64 << 20)
+ *     .fsync(FsyncPolicy.INTERVAL, 100, TimeUnit.MILLISECONDS));
+ * }</pre>
+ */
+public class JournalConfig {
+
+    final Path directory;
+
+    int segmentSize = 64 << 20;
+
+    FsyncPolicy fsyncPolicy = FsyncPolicy.NONE;
+
+    long fsyncIntervalMillis = 1000;
+
+    long checkpointIntervalMillis = 1000;
+
+    /**
+     * @param directory Directory for journal segments and checkpoint, created if missing
+     */
+    public JournalConfig(Path directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Journal directory must not be null");
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * Size of memory mapped segment file, record can not be larger than segment. By default 64 MB.
+     */
+    public JournalConfig segmentSize(int segmentSize) {
+        if (segmentSize < 64) {
+            throw new IllegalArgumentException("Segment size must be at least 64 bytes");
+        }
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    /**
+     * When records are forced to disk. By default {@link FsyncPolicy#NONE}.
+     *
+     * @param interval Force period for {@link FsyncPolicy#INTERVAL}, ignored by other policies
+     */
+    public JournalConfig fsync(FsyncPolicy policy, long interval, TimeUnit unit) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Fsync policy must not be null");
+        }
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        this.fsyncPolicy = policy;
+        this.fsyncIntervalMillis = Math.max(1, unit.toMillis(interval));
+        return this;
+    }
+
+    /**
+     * How often acknowledged offset is saved and fully acknowledged segments are deleted. By default every second.
+     */
+    public JournalConfig checkpointInterval(long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        this.checkpointIntervalMillis = Math.max(1, unit.toMillis(interval));
+        return this;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus.journal;
+
+import io.github.jneat.minibus.EventBus;
+import io.github.jneat.minibus.EventBusEvent;
+import io.github.jneat.minibus.EventBusHandler;
+import io.github.jneat.minibus.FailureConsumer;
+import io.github.jneat.minibus.PublishResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Durable event bus. Every published event is appended to {@link EventJournal} before it is passed to wrapped bus,
+ * and acknowledged when all its handlers have finished (successfully or not). After restart subscribe handlers and
+ * call {@link #replay()} to publish events that were not handled before JVM stopped.
+ * <p>
+ * Delivery is at least once: event handled right before crash, but not checkpointed yet, is replayed again.
+ * Events dropped by wrapped bus (bounded queue, conflation) are acknowledged and not replayed.
+ * <pre>{@code
+ * EventJournal journal = new EventJournal(new JournalConfig(Paths.get("events")));
+ * JournaledEventBus<Event, EventBusHandler<?>> bus = new JournaledEventBus<>(new EventBusAsync<>(), journal, serializer);
+ * bus.subscribe(handler);
+ * bus.replay();
+ * }</pre>
+ */
+public class JournaledEventBus<E extends EventBusEvent, H extends EventBusHandler<?>> implements EventBus<E, H>, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(JournaledEventBus.class);
+
+    private final EventBus<E, H> bus;
+
+    private final EventJournal journal;
+
+    private final EventSerializer<E> serializer;
+
+    /**
+     * @param bus        Bus that dispatches events, events are acknowledged when its {@link EventBus#publishAsync} completes
+     * @param journal    Journal for published events
+     * @param serializer Converts events to journal records and back
+     */
+    public JournaledEventBus(EventBus<E, H> bus, EventJournal journal, EventSerializer<E> serializer) {
+        this.bus = bus;
+        this.journal = journal;
+        this.serializer = serializer;
+    }
+
+    @Override
+    public void subscribe(H subscriber) {
+        bus.subscribe(subscriber);
+    }
+
+    @Override
+    public void subscribe(H subscriber, boolean sticky) {
+        bus.subscribe(subscriber, sticky);
+    }
+
+    @Override
+    public void unsubscribe(H subscriber) {
+        bus.unsubscribe(subscriber);
+    }
+
+    /**
+     * Sticky event is kept and published by wrapped bus, it is not written to journal.
+     */
+    @Override
+    public void publishSticky(E event) {
+        bus.publishSticky(event);
+    }
+
+    @Override
+    public <T extends E> T getStickyEvent(Class<T> cls) {
+        return bus.getStickyEvent(cls);
+    }
+
+    @Override
+    public <T extends E> T removeStickyEvent(Class<T> cls) {
+        return bus.removeStickyEvent(cls);
+    }
+
+    @Override
+    public void publish(E event) {
+        publishAsync(event);
+    }
+
+    /**
+     * Callbacks are called once all handlers of event have finished. If wrapped bus drops the event, failure callback
+     * gets null handler and the error of the dispatching.
+     */
+    @Override
+    public void publish(E event, BiConsumer<E, H> success, FailureConsumer<E, H> failure) {
+        publishAsync(event).whenComplete((result, error) -> {
+            if (error != null) {
+                if (failure != null) {
+                    failure.accept(event, null, error);
+                }
+                return;
+            }
+            if (success != null) {
+                for (H handler : result.getSucceeded()) {
+                    success.accept(event, handler);
+                }
+            }
+            if (failure != null) {
+                result.getFailures().forEach((handler, th) -> failure.accept(event, handler, th));
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<PublishResult<E, H>> publishAsync(E event) {
+        if (event == null) {
+            return bus.publishAsync(null);
+        }
+        long offset;
+        try {
+            offset = journal.append(serializer.serialize(event));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Can not write event " + event.getClass().getSimpleName() + " to journal", ex);
+        }
+        return dispatch(event, offset);
+    }
+
+    /**
+     * Publish events that were not acknowledged in previous run. Call it after handlers are subscribed.
+     *
+     * @return Number of replayed events
+     */
+    public int replay() {
+        return journal.replay((data, offset) -> {
+            E event;
+            try {
+                event = serializer.deserialize(data);
+            } catch (RuntimeException ex) {
+                logger.error("Can not read journal record at {}, record skipped. {}", offset, ex.getMessage(), ex);
+                journal.acknowledge(offset);
+                return;
+            }
+            dispatch(event, offset);
+        });
+    }
+
+    @Override
+    public boolean hasPendingEvents() {
+        return bus.hasPendingEvents();
+    }
+
+    /**
+     * Close wrapped bus if it is {@link AutoCloseable}, so its queued events are handled and acknowledged, then close
+     * journal.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (bus instanceof AutoCloseable) {
+                ((AutoCloseable) bus).close();
+            }
+        } catch (IOException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Can not close event bus", ex);
+        } finally {
+            journal.close();
+        }
+    }
+
+    private CompletableFuture<PublishResult<E, H>> dispatch(E event, long offset) {
+        CompletableFuture<PublishResult<E, H>> future;
+        try {
+            future = bus.publishAsync(event);
+        } catch (RuntimeException ex) {
+            journal.acknowledge(offset);
+            throw ex;
+        }
+        future.whenComplete((result, th) -> journal.acknowledge(offset));
+        return future;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 by rumatoest at github.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.jneat.minibus.metrics;
+
+import io.github.jneat.minibus.EventBusEvent;
+import io.github.jneat.minibus.EventBusMetrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Built-in {@link EventBusMetrics} that keeps counters and latency histograms in memory. All updates are lock-free,
+ * read them periodically and export to your monitoring system.
+ * <pre>{@code
+ * EventBusStats stats = new EventBusStats();
+ * EventBusAsync<Event, EventBusHandler<?>> bus = new EventBusAsync<>(new EventBusAsyncConfig().metrics(stats));
+ * ...
+ * stats.getQueueDepth();
+ * stats.getQueueLatency().getPercentileNanos(99);
+ * }</pre>
+ */
+public class EventBusStats implements EventBusMetrics {
+
+    private final LongAdder published = new LongAdder();
+
+    private final LongAdder dispatched = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final Map<Class<?>, LongAdder> publishedByClass = new ConcurrentHashMap<>();
+
+    private final Map<Class<?>, HandlerStats> handlers = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+
+    @Override
+    public void eventPublished(Class<? extends EventBusEvent> eventClass) {
+        published.increment();
+        LongAdder counter = publishedByClass.get(eventClass);
+        if (counter == null) {
+            counter = publishedByClass.computeIfAbsent(eventClass, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    @Override
+    public void eventDropped(Class<? extends EventBusEvent> eventClass) {
+        dropped.increment();
+    }
+
+    @Override
+    public void eventDispatched(Class<? extends EventBusEvent> eventClass, long queuedNanos) {
+        dispatched.increment();
+        queueLatency.record(queuedNanos);
+    }
+
+    @Override
+    public void handlerCompleted(Class<?> handlerClass, long nanos, boolean failed) {
+        HandlerStats stats = handlers.get(handlerClass);
+        if (stats == null) {
+            stats = handlers.computeIfAbsent(handlerClass, k -> new HandlerStats());
+        }
+        stats.latency.record(nanos);
+        if (failed) {
+            stats.failures.increment();
+        }
+    }
+
+    public long getPublished() {
+        return published.sum();
+    }
+
+    public long getPublished(Class<? extends EventBusEvent> eventClass) {
+        LongAdder counter = publishedByClass.get(eventClass);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    public long getDispatched() {
+        return dispatched.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Events that were published but neither dispatched nor dropped yet.
+     */
+    public long getQueueDepth() {
+        // Read dispatched first, so concurrent publishing can only make result bigger, not negative
+        long out = dispatched.sum() + dropped.sum();
+        return Math.max(0, published.sum() - out);
+    }
+
+    /**
+     * Time between publishing and dispatching.
+     */
+    public LatencyHistogram getQueueLatency() {
+        return queueLatency;
+    }
+
+    /**
+     * @return Stats of handler class or null if it was not called yet
+     */
+    public HandlerStats getHandlerStats(Class<?> handlerClass) {
+        return handlers.get(handlerClass);
+    }
+
+    public Map<Class<?>, HandlerStats> getHandlerStats() {
+        return Collections.unmodifiableMap(handlers);
+    }
+
+    /**
+     * Execution time and failures of handler class.
+     */
+    public static class HandlerStats {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private final LongAdder failures = new LongAdder();
+
+        public long getCalls() {
+            return latency.getCount();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+}
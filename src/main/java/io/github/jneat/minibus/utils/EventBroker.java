@@ -44,27 +44,10 @@ public class EventBroker {
     private final Map<String, EventBusHandler<?>> registry = new HashMap<>();
 
     public <T extends EventBusEvent> void subscribe(Consumer<T> consumer, Class<T> type, String handlerName) {
-        EventBusHandler<T> handler = new EventBusHandler<T>() {
-            private final Class<T> handlerType = type;
-
-            @Override
-            protected Class<T> getLinkedClass() {
-                return handlerType;
-            }
-
+        EventBusHandler<T> handler = new EventBusHandler<T>(type) {
             @Override
             public void handle(T event) {
-                consumer.accept(handlerType.cast(event));
-            }
-
-            @Override
-            public void handleEvent(EventBusEvent event) {
-                this.handle(handlerType.cast(event));
-            }
-
-            @Override
-            public boolean canHandle(Class<? extends EventBusEvent> cls) {
-                return handlerType.equals(cls);
+                consumer.accept(event);
             }
         };
         this.subscribe(handler, handlerName);
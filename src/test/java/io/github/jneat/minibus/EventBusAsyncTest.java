@@ -0,0 +1,939 @@
+package io.github.jneat.minibus;
+
+import io.github.jneat.minibus.metrics.EventBusStats;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EventBusAsyncTest {
+
+    /**
+     * Dispatcher gets stuck on first event until gate is opened, so next events stay in the queue.
+     */
+    static class GatedBus extends EventBusAsync<Event, EventBusHandler<?>> {
+
+        final CountDownLatch taken = new CountDownLatch(1);
+
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        final List<Event> dropped = new CopyOnWriteArrayList<>();
+
+        GatedBus(EventBusAsyncConfig config) {
+            super(config);
+        }
+
+        @Override
+        protected void submitHandler(EventBusHandler<?> h, EventWrapper<Event, EventBusHandler<?>> ew) {
+            taken.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            super.submitHandler(h, ew);
+        }
+
+        @Override
+        protected void eventDropped(Event event) {
+            dropped.add(event);
+        }
+
+        void fill(Event first, Event... queued) throws InterruptedException {
+            publish(first);
+            taken.await();
+            for (Event e : queued) {
+                assertThat(offer(e)).isTrue();
+            }
+        }
+    }
+
+    static class Recorder extends EventBusHandler<Event1> {
+
+        final List<Event1> events = new CopyOnWriteArrayList<>();
+
+        final List<String> threads = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void handle(Event1 event) {
+            events.add(event);
+            threads.add(Thread.currentThread().getName());
+        }
+    }
+
+    static class KeyedEvent implements Event {
+
+        final int key;
+
+        final int seq;
+
+        KeyedEvent(int key, int seq) {
+            this.key = key;
+            this.seq = seq;
+        }
+
+        @Override
+        public Object partitionKey() {
+            return key;
+        }
+    }
+
+    static class KeyedRecorder extends EventBusHandler<KeyedEvent> {
+
+        final Map<Integer, List<Integer>> seqs = new ConcurrentHashMap<>();
+
+        @Override
+        public void handle(KeyedEvent event) {
+            seqs.computeIfAbsent(event.key, k -> new CopyOnWriteArrayList<>()).add(event.seq);
+        }
+    }
+
+    static class NonReentrantRecorder extends EventBusHandler<KeyedEvent> {
+
+        final Map<Integer, List<Integer>> seqs = new ConcurrentHashMap<>();
+
+        final AtomicInteger active = new AtomicInteger();
+
+        final AtomicInteger overlaps = new AtomicInteger();
+
+        @Override
+        public void handle(KeyedEvent event) {
+            if (active.incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+            }
+            seqs.computeIfAbsent(event.key, k -> new CopyOnWriteArrayList<>()).add(event.seq);
+            active.decrementAndGet();
+        }
+    }
+
+    static class BatchRecorder extends EventBusBatchHandler<Event1> {
+
+        final List<Integer> sizes = new CopyOnWriteArrayList<>();
+
+        @Override
+        protected int getMaxBatchSize() {
+            return 10;
+        }
+
+        @Override
+        protected long getLingerMillis() {
+            return 500;
+        }
+
+        @Override
+        public void handleBatch(List<Event1> events) {
+            sizes.add(events.size());
+        }
+    }
+
+    static class Quote implements Event {
+
+        final String symbol;
+
+        final int price;
+
+        Quote(String symbol, int price) {
+            this.symbol = symbol;
+            this.price = price;
+        }
+
+        @Override
+        public Object conflationKey() {
+            return symbol;
+        }
+    }
+
+    static class QuoteRecorder extends EventBusHandler<Quote> {
+
+        final List<String> quotes = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void handle(Quote event) {
+            quotes.add(event.symbol + event.price);
+        }
+    }
+
+    private final List<EventBusAsync<?, ?>> buses = new ArrayList<>();
+
+    private final List<ExecutorService> executors = new ArrayList<>();
+
+    /**
+     * Bus is closed after test method.
+     */
+    private <B extends EventBusAsync<?, ?>> B closing(B bus) {
+        buses.add(bus);
+        return bus;
+    }
+
+    /**
+     * Executor is shut down after test method, once buses are closed.
+     */
+    private <X extends ExecutorService> X shuttingDown(X executor) {
+        executors.add(executor);
+        return executor;
+    }
+
+    @AfterMethod(alwaysRun = true)
+    void cleanup() {
+        for (EventBusAsync<?, ?> bus : buses) {
+            if (bus instanceof GatedBus) {
+                ((GatedBus) bus).gate.countDown();
+            }
+            bus.close(5, TimeUnit.SECONDS);
+        }
+        buses.clear();
+        for (ExecutorService executor : executors) {
+            executor.shutdownNow();
+        }
+        executors.clear();
+    }
+
+    private void awaitHandled(Recorder r, int count) throws InterruptedException {
+        for (int i = 0; i < 500 && r.events.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(r.events).hasSize(count);
+    }
+
+    @Test
+    void dropNewest() throws InterruptedException {
+        GatedBus bus = closing(new GatedBus(new EventBusAsyncConfig().capacity(2, OverflowPolicy.DROP_NEWEST)));
+        Recorder r = new Recorder();
+        bus.subscribe(r);
+
+        Event1 e1 = new Event1(), e2 = new Event1(), e3 = new Event1(), e4 = new Event1();
+        bus.fill(e1, e2, e3);
+        assertThat(bus.offer(e4)).isFalse();
+        bus.gate.countDown();
+
+        awaitHandled(r, 3);
+        assertThat(r.events).containsExactlyInAnyOrder(e1, e2, e3);
+        assertThat(bus.dropped).containsExactly(e4);
+    }
+
+    @Test
+    void dropOldest() throws InterruptedException {
+        GatedBus bus = closing(new GatedBus(new EventBusAsyncConfig().capacity(2, OverflowPolicy.DROP_OLDEST)));
+        Recorder r = new Recorder();
+        bus.subscribe(r);
+
+        Event1 e1 = new Event1(), e2 = new Event1(), e3 = new Event1(), e4 = new Event1();
+        bus.fill(e1, e2, e3);
+        assertThat(bus.offer(e4)).isTrue();
+        bus.gate.countDown();
+
+        awaitHandled(r, 3);
+        assertThat(r.events).containsExactlyInAnyOrder(e1, e3, e4);
+        assertThat(bus.dropped).containsExactly(e2);
+    }
+
+    @Test
+    void dropOldestBatch() throws InterruptedException {
+        GatedBus bus = closing(new GatedBus(new EventBusAsyncConfig().capacity(2, OverflowPolicy.DROP_OLDEST)));
+        Recorder r = new Recorder();
+        bus.subscribe(r);
+
+        Event1 e1 = new Event1(), e2 = new Event1(), e3 = new Event1(), e4 = new Event1();
+        bus.fill(e1);
+        List<Event> failed = new CopyOnWriteArrayList<>();
+        bus.publishAll(Arrays.asList(e2, e3), null, (e, h, th) -> {
+            if (h == null && th instanceof RejectedExecutionException) {
+                failed.add(e);
+            }
+        });
+        // Batch is the oldest entry, each of its events is reported as dropped
+        assertThat(bus.offer(e4)).isTrue();
+        bus.gate.countDown();
+
+        awaitHandled(r, 2);
+        assertThat(r.events).containsExactlyInAnyOrder(e1, e4);
+        assertThat(bus.dropped).containsExactly(e2, e3);
+        assertThat(failed).containsExactly(e2, e3);
+    }
+
+    @Test
+    void callerRuns() throws InterruptedException {
+        GatedBus bus = closing(new GatedBus(new EventBusAsyncConfig().capacity(1, OverflowPolicy.CALLER_RUNS)));
+        Recorder r = new Recorder();
+        bus.subscribe(r);
+
+        Event1 e1 = new Event1(), e2 = new Event1(), e3 = new Event1();
+        bus.fill(e1, e2);
+        assertThat(bus.offer(e3)).isTrue();
+        assertThat(r.events).containsExactly(e3);
+        assertThat(r.threads).containsExactly(Thread.currentThread().getName());
+        bus.gate.countDown();
+
+        awaitHandled(r, 3);
+    }
+
+    @Test
+    void blockTimeout() throws InterruptedException {
+        GatedBus bus = closing(new GatedBus(new EventBusAsyncConfig()
+                .capacity(1, OverflowPolicy.BLOCK_TIMEOUT)
+                .blockTimeout(50, TimeUnit.MILLISECONDS)));
+        Recorder r = new Recorder();
+        bus.subscribe(r);
+
+        Event1 e1 = new Event1(), e2 = new Event1(), e3 = new Event1();
+        bus.fill(e1, e2);
+        long start = System.nanoTime();
+        assertThat(bus.offer(e3)).isFalse();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(50);
+        assertThat(bus.dropped).containsExactly(e3);
+        bus.gate.countDown();
+
+        awaitHandled(r, 2);
+    }
+
+    @Test
+    void block() throws InterruptedException {
+        GatedBus bus = closing(new GatedBus(new EventBusAsyncConfig().capacity(1, OverflowPolicy.BLOCK)));
+        Recorder r = new Recorder();
+        bus.subscribe(r);
+
+        Event1 e1 = new Event1(), e2 = new Event1(), e3 = new Event1();
+        bus.fill(e1, e2);
+        Thread publisher = new Thread(() -> bus.publish(e3));
+        publisher.start();
+        publisher.join(100);
+        assertThat(publisher.isAlive()).isTrue();
+
+        bus.gate.countDown();
+        publisher.join(5000);
+        assertThat(publisher.isAlive()).isFalse();
+
+        awaitHandled(r, 3);
+        assertThat(r.events).containsExactlyInAnyOrder(e1, e2, e3);
+        assertThat(bus.dropped).isEmpty();
+    }
+
+    @Test
+    void dispatchersKeepOrderPerKey() throws InterruptedException {
+        EventBusAsync<Event, EventBusHandler<?>> bus = closing(new EventBusAsync<>(new EventBusAsyncConfig()
+                .handlersExecutor(shuttingDown(Executors.newSingleThreadExecutor()))
+                .dispatchers(4)));
+        KeyedRecorder r = new KeyedRecorder();
+        bus.subscribe(r);
+
+        Thread[] publishers = new Thread[8];
+        for (int k = 0; k < publishers.length; k++) {
+            int key = k;
+            publishers[k] = new Thread(() -> {
+                for (int seq = 0; seq < 1000; seq++) {
+                    bus.publish(new KeyedEvent(key, seq));
+                }
+            });
+            publishers[k].start();
+        }
+        for (Thread t : publishers) {
+            t.join();
+        }
+        for (int i = 0; i < 500 && r.seqs.values().stream().mapToInt(List::size).sum() < 8000; i++) {
+            Thread.sleep(10);
+        }
+
+        assertThat(r.seqs).hasSize(8);
+        for (List<Integer> seq : r.seqs.values()) {
+            assertThat(seq).hasSize(1000);
+            assertThat(seq).isSorted();
+        }
+    }
+
+    @Test
+    void orderedHandlers() throws InterruptedException {
+        EventBusAsync<Event, EventBusHandler<?>> bus = closing(new EventBusAsync<>(new EventBusAsyncConfig()
+                .handlersExecutor(shuttingDown(Executors.newFixedThreadPool(8)))
+                .orderedHandlers(true)));
+
+        NonReentrantRecorder r = new NonReentrantRecorder();
+        KeyedRecorder other = new KeyedRecorder();
+        bus.subscribe(r);
+        bus.subscribe(other);
+
+        for (int seq = 0; seq < 10_000; seq++) {
+            bus.publish(new KeyedEvent(0, seq));
+        }
+        for (int i = 0; i < 500 && r.seqs.getOrDefault(0, List.of()).size() < 10_000; i++) {
+            Thread.sleep(10);
+        }
+
+        assertThat(r.overlaps).hasValue(0);
+        assertThat(r.seqs.get(0)).hasSize(10_000);
+        assertThat(r.seqs.get(0)).isSorted();
+        assertThat(other.seqs.get(0)).isSorted();
+    }
+
+    @Test
+    void orderedHandlersResubscribe() throws InterruptedException {
+        EventBusAsync<Event, EventBusHandler<?>> bus = closing(new EventBusAsync<>(new EventBusAsyncConfig()
+                .handlersExecutor(shuttingDown(Executors.newFixedThreadPool(8)))
+                .orderedHandlers(true)));
+
+        NonReentrantRecorder r = new NonReentrantRecorder();
+        bus.subscribe(r);
+        for (int seq = 0; seq < 10_000; seq++) {
+            bus.publish(new KeyedEvent(0, seq));
+            if (seq % 100 == 0) {
+                // New subscription of the same handler must not get second mailbox
+                bus.unsubscribe(r);
+                bus.subscribe(r);
+            }
+        }
+        assertThat(bus.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(r.overlaps).hasValue(0);
+        assertThat(r.seqs.get(0)).isSorted();
+    }
+
+    @Test
+    void batchHandler() throws InterruptedException {
+        EventBusAsync<Event, EventBusHandler<?>> bus = closing(new EventBusAsync<>());
+        BatchRecorder r = new BatchRecorder();
+        bus.subscribe(r);
+
+        AtomicInteger success = new AtomicInteger();
+        for (int i = 0; i < 25; i++) {
+            bus.publish(new Event1(), (e, h) -> success.incrementAndGet(), null);
+        }
+        // Full batches do not wait for linger time
+        for (int i = 0; i < 40 && r.sizes.size() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(r.sizes).containsExactly(10, 10);
+
+        for (int i = 0; i < 200 && success.get() < 25; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(r.sizes).containsExactly(10, 10, 5);
+        assertThat(success).hasValue(25);
+    }
+
+    @Test
+    void batchHandlerFailureCallbacks() throws InterruptedException {
+        EventBusAsync<Event, EventBusHandler<?>> bus = closing(new EventBusAsync<>());
+        BatchRecorder r = new BatchRecorder() {
+            @Override
+            public void handleBatch(List<Event1> events) {
+                throw new IllegalStateException("batch fail");
+            }
+        };
+        bus.subscribe(r);
+
+        // Failing callback of one event must not skip callbacks of the rest of the batch
+        AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            bus.publish(new Event1(), null, (e, h, th) -> {
+                failures.incrementAndGet();
+                throw new IllegalStateException("callback fail");
+            });
+        }
+        assertThat(bus.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(failures).hasValue(3);
+    }
+
+    @Test
+    void conflation() throws InterruptedException {
+        GatedBus bus = closing(new GatedBus(new EventBusAsyncConfig().conflation(true)));
+        QuoteRecorder r = new QuoteRecorder();
+        bus.subscribe(r);
+
+        bus.publish(new Quote("A", 0));
+        bus.taken.await();
+        for (int i = 1; i <= 10_000; i++) {
+            bus.publish(new Quote("A", i));
+            if (i % 1000 == 0) {
+                bus.publish(new Quote("B", i));
+            }
+        }
+        assertThat(bus.dropped).hasSize(10_000 - 1 + 10 - 1);
+
+        // Replaced event fails without handler, the latest one is handled
+        List<String> results = new CopyOnWriteArrayList<>();
+        bus.publish(new Quote("C", 1), (e, h) -> results.add("ok " + ((Quote) e).price),
+                (e, h, th) -> results.add(h + " " + th.getClass().getSimpleName() + " " + ((Quote) e).price));
+        bus.publish(new Quote("C", 2), (e, h) -> results.add("ok " + ((Quote) e).price),
+                (e, h, th) -> results.add(h + " " + th.getClass().getSimpleName() + " " + ((Quote) e).price));
+        assertThat(results).containsExactly("null RejectedExecutionException 1");
+        bus.gate.countDown();
+
+        assertThat(bus.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(r.quotes).containsExactlyInAnyOrder("A0", "A10000", "B10000", "C2");
+        assertThat(results).containsExactly("null RejectedExecutionException 1", "ok 2");
+    }
+
+    @Test
+    void metrics() throws InterruptedException {
+        EventBusStats stats = new EventBusStats();
+        GatedBus bus = closing(new GatedBus(new EventBusAsyncConfig().capacity(2, OverflowPolicy.DROP_NEWEST).metrics(stats)));
+        Recorder r = new Recorder();
+        bus.subscribe(r);
+
+        bus.fill(new Event1(), new Event1(), new Event1());
+        assertThat(bus.offer(new Event1())).isFalse();
+
+        assertThat(stats.getPublished()).isEqualTo(4);
+        assertThat(stats.getPublished(Event1.class)).isEqualTo(4);
+        assertThat(stats.getDropped()).isEqualTo(1);
+        assertThat(stats.getDispatched()).isEqualTo(1);
+        assertThat(stats.getQueueDepth()).isEqualTo(2);
+
+        bus.gate.countDown();
+        awaitHandled(r, 3);
+        for (int i = 0; i < 500 && stats.getHandlerStats(Recorder.class).getCalls() < 3; i++) {
+            Thread.sleep(10);
+        }
+
+        assertThat(stats.getQueueDepth()).isEqualTo(0);
+        assertThat(stats.getQueueLatency().getCount()).isEqualTo(3);
+        assertThat(stats.getHandlerStats(Recorder.class).getCalls()).isEqualTo(3);
+        assertThat(stats.getHandlerStats(Recorder.class).getFailures()).isEqualTo(0);
+    }
+
+    @Test
+    void jfrEvents() throws Exception {
+        EventBusAsync<Event, EventBusHandler<?>> bus = closing(new EventBusAsync<>());
+        Recorder r = new Recorder();
+        bus.subscribe(r);
+
+        Path file = Files.createTempFile("minibus", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("io.github.jneat.minibus.Publish");
+            recording.enable("io.github.jneat.minibus.Dispatch");
+            recording.enable("io.github.jneat.minibus.Handler").withThreshold(Duration.ZERO);
+            recording.start();
+
+            bus.publish(new Event1());
+            bus.publish(new Event1());
+            // Handler event is committed before handler call is counted as finished
+            assertThat(bus.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        Map<String, Integer> counts = new ConcurrentHashMap<>();
+        for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+            counts.merge(e.getEventType().getName(), 1, Integer::sum);
+        }
+        Files.delete(file);
+
+        assertThat(counts).containsEntry("io.github.jneat.minibus.Publish", 2);
+        assertThat(counts).containsEntry("io.github.jneat.minibus.Dispatch", 2);
+        assertThat(counts).containsEntry("io.github.jneat.minibus.Handler", 2);
+    }
+
+    @Test
+    void handlerTimeout() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        AtomicInteger successes = new AtomicInteger();
+        AtomicInteger reported = new AtomicInteger();
+        EventBusAsync<Event, EventBusHandler<?>> bus = closing(new EventBusAsync<Event, EventBusHandler<?>>(
+                new EventBusAsyncConfig().handlerTimeout(50, TimeUnit.MILLISECONDS).failOnTimeout(true)) {
+            @Override
+            protected void handlerTimedOut(EventBusHandler<?> h, Event event, TimeoutException ex) {
+                reported.incrementAndGet();
+            }
+        });
+        EventBusHandler<Event1> stuck = new EventBusHandler<Event1>() {
+            @Override
+            public void handle(Event1 event) throws InterruptedException {
+                release.await();
+            }
+        };
+        bus.subscribe(stuck);
+
+        bus.publish(new Event1(), (e, h) -> successes.incrementAndGet(), (e, h, th) -> failures.add(th));
+        for (int i = 0; i < 500 && failures.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(failures).hasSize(1);
+        assertThat(failures.get(0)).isInstanceOf(TimeoutException.class);
+        assertThat(reported.get()).isEqualTo(1);
+
+        release.countDown();
+        // Late result of timed out handler is ignored
+        assertThat(bus.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(successes.get()).isEqualTo(0);
+        assertThat(failures).hasSize(1);
+    }
+
+    @Test
+    void publishAsync() throws Exception {
+        EventBusAsync<Event, EventBusHandler<?>> bus = closing(new EventBusAsync<>());
+        Recorder r = new Recorder();
+        EventBusHandler<Event1> failing = new EventBusHandler<Event1>() {
+            @Override
+            public void handle(Event1 event) {
+                throw new IllegalStateException("fail");
+            }
+        };
+        bus.subscribe(r);
+        bus.subscribe(failing);
+
+        Event1 event = new Event1();
+        PublishResult<Event, EventBusHandler<?>> result = bus.publishAsync(event).get(5, TimeUnit.SECONDS);
+        assertThat(result.getEvent()).isSameAs(event);
+        assertThat(result.getSucceeded()).containsExactly(r);
+        assertThat(result.getFailures()).hasSize(1);
+        assertThat(result.getFailures().get(failing)).isInstanceOf(IllegalStateException.class);
+        assertThat(result.isSuccess()).isFalse();
+
+        CompletableFuture<PublishResult<Event, EventBusHandler<?>>> none = bus.publishAsync(new Event2());
+        assertThat(none.get(5, TimeUnit.SECONDS).getSucceeded()).isEmpty();
+    }
+
+    @Test
+    void publishAsyncSettlesHandlersNotCalled() throws Exception {
+        ThreadPoolExecutor executor = shuttingDown(
+                new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>()));
+        EventBusAsync<Event, EventBusHandler<?>> bus = closing(new EventBusAsync<>(new EventBusAsyncConfig()
+                .handlersExecutor(executor)
+                .orderedHandlers(true)));
+        CountDownLatch gate = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Handler1 h1 = new Handler1();
+        WeakReference<Handler1> ref = new WeakReference<>(h1);
+        bus.subscribe(h1);
+        CompletableFuture<PublishResult<Event, EventBusHandler<?>>> queued = bus.publishAsync(new Event1());
+        // Mailbox waits behind the gate with the event inside
+        while (executor.getQueue().isEmpty()) {
+            Thread.sleep(1);
+        }
+        h1 = null;
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(ref.get()).isNull();
+        gate.countDown();
+        assertThat(queued.get(5, TimeUnit.SECONDS).getSucceeded()).isEmpty();
+        assertThat(bus.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+
+        ExecutorService shut = Executors.newSingleThreadExecutor();
+        shut.shutdown();
+        EventBusAsync<Event, EventBusHandler<?>> rejecting = closing(new EventBusAsync<>(shut));
+        Handler1 h2 = new Handler1();
+        rejecting.subscribe(h2);
+        PublishResult<Event, EventBusHandler<?>> result = rejecting.publishAsync(new Event1()).get(5, TimeUnit.SECONDS);
+        assertThat(result.getFailures().get(h2)).isInstanceOf(RejectedExecutionException.class);
+        assertThat(rejecting.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    /**
+     * Bus that does not implement publishAsync itself.
+     */
+    static class ForeignBus implements EventBus<Event, EventBusHandler<?>> {
+
+        final EventBusAsync<Event, EventBusHandler<?>> bus = new EventBusAsync<>();
+
+        @Override
+        public void subscribe(EventBusHandler<?> subscriber) {
+            bus.subscribe(subscriber);
+        }
+
+        @Override
+        public void unsubscribe(EventBusHandler<?> subscriber) {
+            bus.unsubscribe(subscriber);
+        }
+
+        @Override
+        public void publish(Event event) {
+            bus.publish(event);
+        }
+
+        @Override
+        public void publish(
+                Event event,
+                BiConsumer<Event, EventBusHandler<?>> success,
+                FailureConsumer<Event, EventBusHandler<?>> failure) {
+            bus.publish(event, success, failure);
+        }
+
+        @Override
+        public boolean hasPendingEvents() {
+            return bus.hasPendingEvents();
+        }
+    }
+
+    @Test
+    void publishAsyncDefault() throws Exception {
+        ForeignBus bus = new ForeignBus();
+        closing(bus.bus);
+        Recorder r = new Recorder();
+        EventBusHandler<Event1> failing = new EventBusHandler<Event1>() {
+            @Override
+            public void handle(Event1 event) {
+                throw new IllegalStateException("fail");
+            }
+        };
+        bus.subscribe(r);
+        bus.subscribe(failing);
+
+        Event1 event = new Event1();
+        PublishResult<Event, EventBusHandler<?>> result = bus.publishAsync(event).get(5, TimeUnit.SECONDS);
+        assertThat(result.getEvent()).isSameAs(event);
+        assertThat(result.getSucceeded()).containsExactly(r);
+        assertThat(result.getFailures().get(failing)).isInstanceOf(IllegalStateException.class);
+        assertThat(bus.publishAsync(new Event2()).get(5, TimeUnit.SECONDS).getSucceeded()).isEmpty();
+
+        // Sticky defaults keep nothing
+        bus.publishSticky(new Event1());
+        assertThat(bus.getStickyEvent(Event1.class)).isNull();
+        assertThat(bus.bus.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        Recorder late = new Recorder();
+        bus.subscribe(late, true);
+        assertThat(bus.publishAsync(new Event1()).get(5, TimeUnit.SECONDS).getSucceeded()).contains(late);
+        assertThat(late.events).hasSize(1);
+    }
+
+    static class CountingBus extends ForeignBus {
+
+        final List<EventBusHandler<?>> handlers = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void subscribe(EventBusHandler<?> subscriber) {
+            super.subscribe(subscriber);
+            handlers.add(subscriber);
+        }
+
+        @Override
+        public int countHandlers(Event event) {
+            int count = 0;
+            for (EventBusHandler<?> h : handlers) {
+                if (h.getLinkedClass() == event.getClass()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    @Test
+    void publishAsyncCounted() throws Exception {
+        CountingBus bus = new CountingBus();
+        closing(bus.bus);
+        CountDownLatch gate = new CountDownLatch(1);
+        Recorder r = new Recorder();
+        EventBusHandler<Event2> busy = new EventBusHandler<Event2>() {
+            @Override
+            public void handle(Event2 event) throws InterruptedException {
+                gate.await();
+            }
+        };
+        bus.subscribe(r);
+        bus.subscribe(busy);
+
+        // Bus stays busy with other event, counted future does not wait for it
+        bus.publish(new Event2());
+        Event1 event = new Event1();
+        PublishResult<Event, EventBusHandler<?>> result = bus.publishAsync(event).get(5, TimeUnit.SECONDS);
+        assertThat(result.getSucceeded()).containsExactly(r);
+        assertThat(bus.hasPendingEvents()).isTrue();
+        assertThat(bus.publishAsync(new Event3()).get(5, TimeUnit.SECONDS).getSucceeded()).isEmpty();
+        gate.countDown();
+        bus.bus.close();
+
+        // Dropped event fails future instead of leaving it incomplete
+        boolean rejected = false;
+        try {
+            bus.publishAsync(new Event1()).get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException ex) {
+            rejected = ex.getCause() instanceof RejectedExecutionException;
+        }
+        assertThat(rejected).isTrue();
+    }
+
+    /**
+     * testJava21 Gradle task runs tests with multi-release jar and sets minibus.java21 property.
+     */
+    @Test
+    void threadPerHandler() throws Exception {
+        boolean java21 = Boolean.getBoolean("minibus.java21");
+        assertThat(HandlerExecutors.isVirtual()).isEqualTo(java21);
+
+        ExecutorService executor = shuttingDown(HandlerExecutors.newThreadPerHandler());
+        EventBusAsync<Event, EventBusHandler<?>> bus = closing(new EventBusAsync<>(executor));
+        Recorder r = new Recorder();
+        bus.subscribe(r);
+        bus.publishAsync(new Event1()).get(5, TimeUnit.SECONDS);
+        assertThat(r.threads).hasSize(1);
+        assertThat(r.threads.get(0).startsWith("EventBus handler-")).isEqualTo(java21);
+    }
+
+    @Test
+    void quiescenceAndClose() throws InterruptedException {
+        List<Event> dropped = new CopyOnWriteArrayList<>();
+        EventBusAsync<Event, EventBusHandler<?>> bus = new EventBusAsync<Event, EventBusHandler<?>>() {
+            @Override
+            protected void eventDropped(Event event) {
+                dropped.add(event);
+            }
+        };
+        List<Event1> handled = new CopyOnWriteArrayList<>();
+        EventBusHandler<Event1> slow = new EventBusHandler<Event1>() {
+            @Override
+            public void handle(Event1 event) throws InterruptedException {
+                Thread.sleep(50);
+                handled.add(event);
+            }
+        };
+        bus.subscribe(slow);
+
+        for (int i = 0; i < 3; i++) {
+            bus.publish(new Event1());
+        }
+        assertThat(bus.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(handled).hasSize(3);
+        assertThat(bus.hasPendingEvents()).isFalse();
+
+        bus.publish(new Event1());
+        assertThat(bus.close(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(handled).hasSize(4);
+
+        assertThat(bus.offer(new Event1())).isFalse();
+        assertThat(dropped).hasSize(1);
+    }
+
+    @Test
+    void publishAllocations() throws InterruptedException {
+        Thread publisher = Thread.currentThread();
+        Event1 event = new Event1();
+        EventBusSimple<Event, EventBusHandler<?>> simple = new EventBusSimple<>();
+        Handler1 h1 = new Handler1();
+        simple.subscribe(h1);
+        publishMany(simple, event);
+        long before = allocatedBytes(publisher);
+        publishMany(simple, event);
+        assertThat((allocatedBytes(publisher) - before) / PUBLISHES).isLessThan(16);
+
+        // Handlers run in dispatcher thread, so executor does not add own allocations to measured ones
+        AtomicReference<Thread> dispatcher = new AtomicReference<>();
+        EventBusAsync<Event, EventBusHandler<?>> async = new EventBusAsync<>(new DirectExecutor());
+        EventBusHandler<Event1> h2 = new EventBusHandler<Event1>() {
+            @Override
+            public void handle(Event1 event) {
+                dispatcher.lazySet(Thread.currentThread());
+            }
+        };
+        async.subscribe(h2);
+        publishMany(async, event);
+        assertThat(async.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        long publisherBefore = allocatedBytes(publisher);
+        long dispatcherBefore = allocatedBytes(dispatcher.get());
+        publishMany(async, event);
+        assertThat(async.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        // Queue node is the only thing allocated by publisher
+        assertThat((allocatedBytes(publisher) - publisherBefore) / PUBLISHES).isLessThan(48);
+        assertThat((allocatedBytes(dispatcher.get()) - dispatcherBefore) / PUBLISHES).isLessThan(8);
+        async.close();
+
+        EventBusRing<Event, EventBusHandler<?>> ring = new EventBusRing<>(1024, new DirectExecutor());
+        ring.subscribe(h2);
+        publishMany(ring, event);
+        awaitDispatched(ring);
+        publisherBefore = allocatedBytes(publisher);
+        dispatcherBefore = allocatedBytes(dispatcher.get());
+        publishMany(ring, event);
+        awaitDispatched(ring);
+        assertThat((allocatedBytes(publisher) - publisherBefore) / PUBLISHES).isLessThan(8);
+        assertThat((allocatedBytes(dispatcher.get()) - dispatcherBefore) / PUBLISHES).isLessThan(8);
+    }
+
+    private static void awaitDispatched(EventBus<?, ?> bus) throws InterruptedException {
+        for (int i = 0; i < 5000 && bus.hasPendingEvents(); i++) {
+            Thread.sleep(1);
+        }
+        assertThat(bus.hasPendingEvents()).isFalse();
+    }
+
+    private static final int PUBLISHES = 100_000;
+
+    private static void publishMany(EventBus<Event, EventBusHandler<?>> bus, Event event) {
+        for (int i = 0; i < PUBLISHES; i++) {
+            bus.publish(event);
+        }
+    }
+
+    private static long allocatedBytes(Thread thread) {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(thread.getId());
+    }
+
+    /**
+     * Runs tasks in calling thread.
+     */
+    static class DirectExecutor extends AbstractExecutorService {
+
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return shutdown;
+        }
+    }
+}
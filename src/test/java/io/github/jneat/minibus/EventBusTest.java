@@ -3,7 +3,23 @@ package io.github.jneat.minibus;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.ServiceLoader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -39,6 +55,166 @@ public class EventBusTest {
         testBus(eventBus);
     }
 
+    @Test(priority = 15)
+    void testAsyncSpinning() throws InterruptedException {
+        EventBusAsync<Event, EventBusHandler<?>> eventBus = new EventBusAsync<>(
+                Executors.newCachedThreadPool(), WaitStrategy.spinYieldPark(1000, 100));
+        eventBus.subscribe(h1);
+        eventBus.subscribe(h2);
+        eventBus.subscribe(h3);
+        eventBus.subscribe(h234);
+        eventBus.subscribe(h4);
+
+        testBus(eventBus);
+    }
+
+    @Test(priority = 16)
+    void testRing() throws InterruptedException {
+        EventBusRing<Event, EventBusHandler<?>> eventBus = new EventBusRing<>(64);
+        eventBus.subscribe(h1);
+        eventBus.subscribe(h2);
+        eventBus.subscribe(h3);
+        eventBus.subscribe(h234);
+        eventBus.subscribe(h4);
+
+        testBus(eventBus);
+    }
+
+    @Test(priority = 17)
+    void testRingExecutor() throws InterruptedException {
+        EventBusRing<Event, EventBusHandler<?>> eventBus = new EventBusRing<>(64, Executors.newCachedThreadPool());
+        eventBus.subscribe(h1);
+        eventBus.subscribe(h2);
+        eventBus.subscribe(h3);
+        eventBus.subscribe(h234);
+        eventBus.subscribe(h4);
+
+        testBus(eventBus);
+    }
+
+    @Test(priority = 18)
+    void testRingWraps() throws InterruptedException {
+        EventBusRing<Event, EventBusHandler<?>> eventBus = new EventBusRing<>(8);
+        eventBus.subscribe(h1);
+
+        Thread[] publishers = new Thread[4];
+        for (int i = 0; i < publishers.length; i++) {
+            publishers[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    eventBus.publish(new Event1());
+                }
+            });
+            publishers[i].start();
+        }
+        for (Thread t : publishers) {
+            t.join();
+        }
+        while (eventBus.hasPendingEvents()) {
+            Thread.sleep(10);
+        }
+
+        assertThat(h1.counter).hasValue(4000);
+    }
+
+    @Test(priority = 19)
+    void testRingPendingAndClose() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        EventBusHandler<Event1> blocked = new EventBusHandler<Event1>() {
+            @Override
+            public void handle(Event1 event) throws InterruptedException {
+                gate.await();
+            }
+        };
+        EventBusRing<Event, EventBusHandler<?>> eventBus = new EventBusRing<>(8, Executors.newCachedThreadPool());
+        eventBus.subscribe(blocked);
+        eventBus.subscribe(h1);
+
+        eventBus.publishAll(Arrays.asList(new Event1(), null, new Event1()));
+        for (int i = 0; i < 500 && h1.counter.get() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(h1.counter).hasValue(2);
+        // Events left the ring, but handlers are still running
+        assertThat(eventBus.hasPendingEvents()).isTrue();
+        gate.countDown();
+        assertThat(eventBus.close(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(eventBus.hasPendingEvents()).isFalse();
+
+        ExecutorService shut = Executors.newSingleThreadExecutor();
+        shut.shutdown();
+        EventBusRing<Event, EventBusHandler<?>> rejecting = new EventBusRing<>(8, shut);
+        rejecting.subscribe(h1);
+        PublishResult<Event, EventBusHandler<?>> result = rejecting.publishAsync(new Event1()).get(5, TimeUnit.SECONDS);
+        assertThat(result.getFailures().get(h1)).isInstanceOf(RejectedExecutionException.class);
+        assertThat(rejecting.close(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test(priority = 19)
+    void testRingClosed() throws Exception {
+        EventBusRing<Event, EventBusHandler<?>> eventBus = new EventBusRing<>(8);
+        eventBus.subscribe(h1);
+        eventBus.close();
+
+        AtomicReference<Throwable> failed = new AtomicReference<>();
+        eventBus.publish(new Event1(), null, (e, h, th) -> failed.set(th));
+        assertThat(failed.get()).isInstanceOf(RejectedExecutionException.class);
+        boolean rejected = false;
+        try {
+            eventBus.publishAsync(new Event1()).get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException ex) {
+            rejected = ex.getCause() instanceof RejectedExecutionException;
+        }
+        assertThat(rejected).isTrue();
+        assertThat(h1.counter).hasValue(0);
+    }
+
+    @Test(priority = 19)
+    void testRingCloseDropsStuckEvents() throws InterruptedException {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        EventBusHandler<Event1> blocked = new EventBusHandler<Event1>() {
+            @Override
+            public void handle(Event1 event) {
+                entered.countDown();
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        // Handler swallows interruption, dispatcher must stop anyway
+                    }
+                }
+            }
+        };
+        EventBusRing<Event, EventBusHandler<?>> eventBus = new EventBusRing<>(2);
+        eventBus.subscribe(blocked);
+        AtomicInteger dropped = new AtomicInteger();
+        FailureConsumer<Event, EventBusHandler<?>> failure = (e, h, th) -> {
+            if (h == null && th instanceof RejectedExecutionException) {
+                dropped.incrementAndGet();
+            }
+        };
+        eventBus.publish(new Event1());
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+        eventBus.publish(new Event1(), null, failure);
+
+        // Ring is full, publisher waits for slot until dispatcher stops
+        Thread publisher = new Thread(() -> eventBus.publish(new Event1(), null, failure));
+        publisher.start();
+        while (publisher.getState() != Thread.State.TIMED_WAITING && publisher.isAlive()) {
+            Thread.sleep(1);
+        }
+
+        assertThat(eventBus.close(100, TimeUnit.MILLISECONDS)).isFalse();
+        release.countDown();
+        publisher.join(5000);
+        assertThat(publisher.isAlive()).isFalse();
+        for (int i = 0; i < 500 && dropped.get() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(dropped).hasValue(2);
+        assertThat(eventBus.hasPendingEvents()).isFalse();
+    }
+
     @Test(priority = 20)
     void testSimple() throws InterruptedException {
         EventBusSimple<Event, EventBusHandler<?>> eventBus = new EventBusSimple<>();
@@ -51,6 +227,391 @@ public class EventBusTest {
         testBus(eventBus);
     }
 
+    @Test(priority = 20)
+    void testSimpleCallbackFail() {
+        EventBusSimple<Event, EventBusHandler<?>> eventBus = new EventBusSimple<>();
+        Handler1 other = new Handler1();
+        eventBus.subscribe(h1);
+        eventBus.subscribe(other);
+
+        // Failing callback of the first handler must not skip the second one
+        eventBus.publish(new Event1(), (e, h) -> {
+            throw new IllegalStateException("callback fail");
+        }, (e, h, th) -> {
+            throw new IllegalStateException("callback fail");
+        });
+        assertThat(h1.counter).hasValue(1);
+        assertThat(other.counter).hasValue(1);
+    }
+
+    @Test(priority = 25)
+    void testStableWildcard() {
+        EventBusSimple<Event, EventBusHandler<?>> eventBus = new EventBusSimple<>();
+        HandlerStable hs = new HandlerStable();
+        eventBus.subscribe(hs);
+
+        eventBus.publish(new Event2());
+        eventBus.publish(new Event2());
+        eventBus.publish(new Event1());
+        eventBus.publish(new Event2());
+
+        assertThat(hs.counter).hasValue(3);
+        assertThat(hs.checks).hasValue(2);
+
+        // subscription change drops cached resolution
+        eventBus.subscribe(h1);
+        eventBus.publish(new Event2());
+        eventBus.publish(new Event1());
+
+        assertThat(hs.counter).hasValue(4);
+        assertThat(hs.checks).hasValue(4);
+        assertThat(h1.counter).hasValue(1);
+    }
+
+    @Test(priority = 26)
+    void testSubtypes() throws InterruptedException {
+        EventBusAsync<Event, EventBusHandler<?>> eventBus = new EventBusAsync<>();
+        HandlerSubtypes hs = new HandlerSubtypes();
+        eventBus.subscribe(hs);
+        eventBus.subscribe(h1);
+
+        eventBus.publish(new Event1());
+        eventBus.publish(new Event2());
+        eventBus.publish(new Event3());
+        awaitIdle(eventBus);
+
+        assertThat(hs.counter).hasValue(3);
+        assertThat(h1.counter).hasValue(1);
+
+        eventBus.unsubscribe(hs);
+        eventBus.publish(new Event1());
+        awaitIdle(eventBus);
+
+        assertThat(hs.counter).hasValue(3);
+        assertThat(h1.counter).hasValue(2);
+    }
+
+    @Test(priority = 27)
+    void testEventClassResolution() {
+        assertThat(new Handler1() { }.getEventClass()).isEqualTo(Event1.class);
+        assertThat(new Counting<Event2>() { }.getEventClass()).isEqualTo(Event2.class);
+        assertThat(new CountingList<Event3>() { }.getEventClass()).isEqualTo(Event3.class);
+        assertThat(new GenericCounting<Event1>().getEventClass()).isNull();
+        assertThat(new GenericCounting<>(Event1.class).getEventClass()).isEqualTo(Event1.class);
+
+        EventBusSimple<Event, EventBusHandler<?>> eventBus = new EventBusSimple<>();
+        Counting<Event2> deep = new CountingList<Event2>() { };
+        GenericCounting<Event2> explicit = new GenericCounting<>(Event2.class);
+        eventBus.subscribe(deep);
+        eventBus.subscribe(explicit);
+
+        eventBus.publish(new Event1());
+        eventBus.publish(new Event2());
+
+        assertThat(deep.counter).hasValue(1);
+        assertThat(explicit.counter).hasValue(1);
+    }
+
+    @Test(priority = 27, expectedExceptions = IllegalStateException.class)
+    void testUnresolvedEventClass() {
+        new EventBusSimple<Event, EventBusHandler<?>>().subscribe(new GenericCounting<Event1>());
+    }
+
+    static class Counting<T extends Event> extends EventBusHandler<T> {
+
+        AtomicInteger counter = new AtomicInteger();
+
+        Counting() {
+        }
+
+        Counting(Class<T> eventClass) {
+            super(eventClass);
+        }
+
+        @Override
+        public void handle(T event) {
+            counter.incrementAndGet();
+        }
+    }
+
+    static class CountingList<X extends Event> extends Counting<X> {
+    }
+
+    static class GenericCounting<T extends Event> extends Counting<T> {
+
+        GenericCounting() {
+        }
+
+        GenericCounting(Class<T> eventClass) {
+            super(eventClass);
+        }
+    }
+
+    @Test(priority = 28)
+    void testSubscribeMethods() {
+        EventBusSimple<Event, EventBusHandler<?>> eventBus = new EventBusSimple<>();
+        Listener listener = new Listener();
+        Subscribers.subscribe(eventBus, listener);
+        Subscribers.subscribe(eventBus, listener);
+
+        AtomicInteger success = new AtomicInteger();
+        AtomicInteger error = new AtomicInteger();
+        eventBus.publish(new Event1(), (e, h) -> success.incrementAndGet(), (e, h, th) -> error.incrementAndGet());
+        eventBus.publish(new Event2(), (e, h) -> success.incrementAndGet(), (e, h, th) -> error.incrementAndGet());
+        eventBus.publish(new Event3(), (e, h) -> success.incrementAndGet(), (e, h, th) -> error.incrementAndGet());
+
+        assertThat(listener.event1).hasValue(1);
+        assertThat(listener.any).hasValue(3);
+        assertThat(success).hasValue(3);
+        assertThat(error).hasValue(1);
+
+        Subscribers.unsubscribe(eventBus, listener);
+        eventBus.publish(new Event1());
+
+        assertThat(listener.event1).hasValue(1);
+        assertThat(listener.any).hasValue(3);
+    }
+
+    @Test(priority = 28)
+    void testSubscribeEqualTargets() throws InterruptedException {
+        EventBusSimple<Event, EventBusHandler<?>> eventBus = new EventBusSimple<>();
+        EqualListener first = new EqualListener();
+        EqualListener second = new EqualListener();
+        Subscribers.subscribe(eventBus, first);
+        Subscribers.subscribe(eventBus, second);
+        eventBus.publish(new Event1());
+        assertThat(first.event1).hasValue(1);
+        assertThat(second.event1).hasValue(1);
+
+        WeakReference<EqualListener> ref = new WeakReference<>(first);
+        first = null;
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(ref.get()).isNull();
+        // Next subscription expunges collected target, handlers of equal live target must stay
+        Subscribers.subscribe(eventBus, new Listener());
+        System.gc();
+        eventBus.publish(new Event1());
+        eventBus.publish(new Event1());
+        assertThat(second.event1).hasValue(3);
+    }
+
+    static class EqualListener extends Listener {
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof EqualListener;
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+    }
+
+    static class Listener {
+
+        AtomicInteger event1 = new AtomicInteger();
+
+        AtomicInteger any = new AtomicInteger();
+
+        @Subscribe
+        private void onEvent1(Event1 event) {
+            event1.incrementAndGet();
+        }
+
+        @Subscribe(subtypes = true)
+        void onAny(Event event) throws Exception {
+            any.incrementAndGet();
+            if (event instanceof Event3) {
+                throw new Exception("Event3 is not supported");
+            }
+        }
+    }
+
+    @Test(priority = 29)
+    void testSubscriberIndex() {
+        assertThat(SubscriberIndexes.getEventClass(Handler1.class)).isEqualTo(Event1.class);
+        assertThat(SubscriberIndexes.getSubscriberMethods(IndexedListener.class)).hasSize(1);
+        // private subscribe method can not be called from generated index
+        assertThat(SubscriberIndexes.getSubscriberMethods(Listener.class)).isNull();
+
+        EventBusSimple<Event, EventBusHandler<?>> eventBus = new EventBusSimple<>();
+        IndexedListener listener = new IndexedListener();
+        Subscribers.subscribe(eventBus, listener);
+        eventBus.publish(new Event2());
+        eventBus.publish(new Event1());
+
+        assertThat(listener.counter).hasValue(1);
+    }
+
+    static class IndexedListener {
+
+        AtomicInteger counter = new AtomicInteger();
+
+        @Subscribe
+        void onEvent2(Event2 event) {
+            counter.incrementAndGet();
+        }
+    }
+
+    /**
+     * Index listed in service file after broken one.
+     */
+    public static class ValidIndex implements SubscriberIndex {
+    }
+
+    @Test(priority = 29)
+    void testBrokenSubscriberIndex() throws IOException {
+        Path dir = Files.createTempDirectory("index");
+        Path services = dir.resolve("META-INF/services/" + SubscriberIndex.class.getName());
+        Files.createDirectories(services.getParent());
+        Files.write(services, Arrays.asList("io.github.jneat.minibus.MissingIndex", ValidIndex.class.getName()));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{dir.toUri().toURL()}, getClass().getClassLoader())) {
+            SubscriberIndex[] indexes = SubscriberIndexes.load(ServiceLoader.load(SubscriberIndex.class, loader));
+            assertThat(Arrays.stream(indexes).anyMatch(index -> index instanceof ValidIndex)).isTrue();
+        }
+    }
+
+    @Test(priority = 30)
+    void testSticky() {
+        EventBusSimple<Event, EventBusHandler<?>> eventBus = new EventBusSimple<>();
+        Event1 sticky = new Event1();
+        eventBus.publishSticky(new Event1());
+        eventBus.publishSticky(sticky);
+        eventBus.publishSticky(new Event2());
+        assertThat(eventBus.getStickyEvent(Event1.class)).isSameAs(sticky);
+
+        // Only the latest Event1 is delivered, Event2 is not handled by h1
+        eventBus.subscribe(h1, true);
+        assertThat(h1.counter).hasValue(1);
+        eventBus.subscribe(h234, true);
+        assertThat(h234.counter).hasValue(1);
+        eventBus.subscribe(h3, false);
+        assertThat(h3.counter).hasValue(0);
+
+        assertThat(eventBus.removeStickyEvent(Event1.class)).isSameAs(sticky);
+        Handler1 late = new Handler1();
+        eventBus.subscribe(late, true);
+        assertThat(late.counter).hasValue(0);
+    }
+
+    @Test(priority = 31)
+    void testBinary() throws InterruptedException {
+        EventBusBinary eventBus = new EventBusBinary(16, 16);
+        AtomicInteger sum = new AtomicInteger();
+        AtomicInteger other = new AtomicInteger();
+        EventBusHandler<BinaryEvent> handler = new EventBusHandler<BinaryEvent>() {
+            @Override
+            public void handle(BinaryEvent event) {
+                if (event.type() == 1) {
+                    sum.addAndGet(event.getInt(0) * event.getInt(4));
+                } else {
+                    other.incrementAndGet();
+                }
+            }
+        };
+        eventBus.subscribe(handler);
+
+        for (int i = 0; i < 100; i++) {
+            eventBus.claim(1, 8).putInt(0, i).putInt(4, 2).commit();
+        }
+        eventBus.claim(1, 8).abort();
+        eventBus.publish(2, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        try {
+            eventBus.publish(1, 8, e -> {
+                throw new IllegalStateException("fail");
+            });
+        } catch (IllegalStateException ex) {
+            // Claim is aborted, next message is delivered
+        }
+        eventBus.publish(1, 8, e -> e.putInt(0, 50).putInt(4, 2));
+        assertThat(eventBus.close(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(sum.get()).isEqualTo(10000);
+        assertThat(other.get()).isEqualTo(1);
+        assertThat(eventBus.hasPendingEvents()).isFalse();
+    }
+
+    @Test(priority = 32)
+    void testBinaryCloseReleasesPublishers() throws InterruptedException {
+        EventBusBinary eventBus = new EventBusBinary(2, 8);
+        AtomicInteger handled = new AtomicInteger();
+        eventBus.subscribe(new EventBusHandler<BinaryEvent>() {
+            @Override
+            public void handle(BinaryEvent event) {
+                handled.incrementAndGet();
+            }
+        });
+
+        // Uncommitted claim blocks dispatcher, so ring gets full
+        AtomicReference<BinaryEvent> held = new AtomicReference<>();
+        Thread holder = new Thread(() -> held.set(eventBus.claim(1, 8)));
+        holder.start();
+        holder.join();
+        eventBus.claim(1, 8).commit();
+
+        AtomicReference<Throwable> failed = new AtomicReference<>();
+        Thread publisher = new Thread(() -> {
+            try {
+                eventBus.claim(1, 8).commit();
+            } catch (Throwable th) {
+                failed.set(th);
+            }
+        });
+        publisher.start();
+        while (publisher.getState() != Thread.State.TIMED_WAITING && publisher.isAlive()) {
+            Thread.sleep(1);
+        }
+
+        assertThat(eventBus.close(100, TimeUnit.MILLISECONDS)).isFalse();
+        publisher.join(5000);
+        assertThat(publisher.isAlive()).isFalse();
+        assertThat(failed.get()).isInstanceOf(IllegalStateException.class);
+        boolean committed = true;
+        try {
+            held.get().commit();
+        } catch (IllegalStateException ex) {
+            committed = false;
+        }
+        assertThat(committed).isFalse();
+        assertThat(handled.get()).isEqualTo(0);
+        assertThat(eventBus.hasPendingEvents()).isFalse();
+    }
+
+    @Test(priority = 33)
+    void testBinaryCollected() throws InterruptedException {
+        EventBusBinary eventBus = new EventBusBinary(16, 16);
+        eventBus.claim(1, 8).putInt(0, 1).commit();
+        assertThat(eventBus.close(5, TimeUnit.SECONDS)).isTrue();
+
+        // Claim flyweight stays in thread local of this thread, it must not keep closed bus reachable
+        WeakReference<EventBusBinary> ref = new WeakReference<>(eventBus);
+        eventBus = null;
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(ref.get()).isNull();
+    }
+
+    /**
+     * Wait until bus has handled published events and called their callbacks.
+     */
+    private static void awaitIdle(EventBus<?, ?> eb) throws InterruptedException {
+        if (eb instanceof EventBusAsync) {
+            assertThat(((EventBusAsync<?, ?>) eb).awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+            return;
+        }
+        for (int i = 0; i < 500 && eb.hasPendingEvents(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(eb.hasPendingEvents()).isFalse();
+    }
+
     private void testBus(EventBus<Event, EventBusHandler<?>> eb) throws InterruptedException {
         // h1.counter.set(0);
         // h2.counter.set(0);
@@ -63,7 +624,7 @@ public class EventBusTest {
         assertThat(h234.counter).hasValue(0);
 
         eb.publish(new Event1());
-        Thread.sleep(500);
+        awaitIdle(eb);
 
         assertThat(h1.counter).hasValue(1);
         assertThat(h2.counter).hasValue(0);
@@ -71,7 +632,7 @@ public class EventBusTest {
         assertThat(h234.counter).hasValue(0);
 
         eb.publish(new Event2());
-        Thread.sleep(500);
+        awaitIdle(eb);
 
         assertThat(h1.counter).hasValue(1);
         assertThat(h2.counter).hasValue(1);
@@ -86,7 +647,7 @@ public class EventBusTest {
                 }, (e, h, th) -> {
                     e3error.incrementAndGet();
                 });
-        Thread.sleep(500);
+        awaitIdle(eb);
 
         assertThat(e3success).hasValue(2);
         assertThat(e3error).hasValue(0);
@@ -103,7 +664,7 @@ public class EventBusTest {
                 }, (e, h, th) -> {
                     e4error.incrementAndGet();
                 });
-        Thread.sleep(500);
+        awaitIdle(eb);
 
         assertThat(e4success).hasValue(1);
         assertThat(e4error).hasValue(1);
@@ -111,5 +672,22 @@ public class EventBusTest {
         assertThat(h2.counter).hasValue(1);
         assertThat(h3.counter).hasValue(1);
         assertThat(h234.counter).hasValue(3);
+
+        AtomicInteger batchSuccess = new AtomicInteger(0);
+        AtomicInteger batchError = new AtomicInteger(0);
+        eb.publishAll(Arrays.asList(new Event1(), new Event2(), null, new Event4(), new Event1()),
+                (e, h) -> {
+                    batchSuccess.incrementAndGet();
+                }, (e, h, th) -> {
+                    batchError.incrementAndGet();
+                });
+        awaitIdle(eb);
+
+        assertThat(batchSuccess).hasValue(5);
+        assertThat(batchError).hasValue(1);
+        assertThat(h1.counter).hasValue(3);
+        assertThat(h2.counter).hasValue(2);
+        assertThat(h3.counter).hasValue(1);
+        assertThat(h234.counter).hasValue(5);
     }
 }
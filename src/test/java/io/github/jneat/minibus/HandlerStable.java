@@ -0,0 +1,34 @@
+package io.github.jneat.minibus;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handler with stable canHandle result, that should be asked once per event class
+ */
+public class HandlerStable extends EventBusHandler<EventBusEvent> {
+
+    AtomicInteger counter = new AtomicInteger();
+
+    AtomicInteger checks = new AtomicInteger();
+
+    @Override
+    protected Class<EventBusEvent> getLinkedClass() {
+        return null;
+    }
+
+    @Override
+    protected boolean isCanHandleStable() {
+        return true;
+    }
+
+    @Override
+    public boolean canHandle(Class<? extends EventBusEvent> cls) {
+        checks.incrementAndGet();
+        return Event2.class.isAssignableFrom(cls);
+    }
+
+    @Override
+    public void handle(EventBusEvent event) {
+        counter.incrementAndGet();
+    }
+}
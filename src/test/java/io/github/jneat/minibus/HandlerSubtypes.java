@@ -0,0 +1,21 @@
+package io.github.jneat.minibus;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handler subscribed to events interface, receives all implementations
+ */
+public class HandlerSubtypes extends EventBusHandler<Event> {
+
+    AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    protected boolean isHandlingSubtypes() {
+        return true;
+    }
+
+    @Override
+    public void handle(Event event) {
+        counter.incrementAndGet();
+    }
+}
@@ -0,0 +1,113 @@
+package io.github.jneat.minibus;
+
+import org.testng.annotations.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HandlersRegistryTest {
+
+    private static List<EventBusHandler<?>> handlers(WeakHandler<EventBusHandler<?>>[] hs) {
+        List<EventBusHandler<?>> list = new ArrayList<>();
+        if (hs != null) {
+            for (WeakHandler<EventBusHandler<?>> wh : hs) {
+                list.add(wh.get());
+            }
+        }
+        return list;
+    }
+
+    private static void gc(WeakReference<?> ref) throws InterruptedException {
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(ref.get()).isNull();
+    }
+
+    @Test
+    void snapshotUnaffectedBySubscriptionChange() {
+        HandlersRegistry<EventBusHandler<?>> registry = new HandlersRegistry<>();
+        Handler1 h1 = new Handler1();
+        Handler1 h1b = new Handler1();
+        Handler234 h234 = new Handler234();
+        Handler234 h234b = new Handler234();
+        registry.subscribe(h1);
+        registry.subscribe(h234);
+
+        // Dispatching thread holds these arrays while subscriptions change
+        WeakHandler<EventBusHandler<?>>[] linked = registry.linked(Event1.class);
+        WeakHandler<EventBusHandler<?>>[] wildcards = registry.wildcards();
+        registry.subscribe(h1b);
+        registry.unsubscribe(h1);
+        registry.subscribe(h234b);
+        registry.unsubscribe(h234);
+
+        assertThat(handlers(linked)).containsExactly(h1);
+        assertThat(handlers(wildcards)).containsExactly(h234);
+        assertThat(handlers(registry.linked(Event1.class))).containsExactly(h1b);
+        assertThat(handlers(registry.wildcards())).containsExactly(h234b);
+    }
+
+    @Test
+    void resolvedCacheInvalidation() {
+        HandlersRegistry<EventBusHandler<?>> registry = new HandlersRegistry<>();
+        HandlerSubtypes subtypes = new HandlerSubtypes();
+        HandlerStable stable = new HandlerStable();
+        registry.subscribe(subtypes);
+        registry.subscribe(stable);
+        assertThat(handlers(registry.linked(Event1.class))).containsExactly(subtypes);
+        assertThat(handlers(registry.linked(Event2.class))).containsExactly(subtypes, stable);
+        assertThat(handlers(registry.linked(Event2.class))).containsExactly(subtypes, stable);
+        assertThat(stable.checks.get()).isEqualTo(2);
+
+        // Handler linked to exact class is added to cached subtypes handlers
+        Handler1 h1 = new Handler1();
+        registry.subscribe(h1);
+        assertThat(handlers(registry.linked(Event1.class))).containsExactly(h1, subtypes);
+
+        HandlerSubtypes subtypes2 = new HandlerSubtypes();
+        registry.subscribe(subtypes2);
+        assertThat(handlers(registry.linked(Event1.class))).containsExactly(h1, subtypes, subtypes2);
+
+        registry.unsubscribe(subtypes);
+        registry.unsubscribe(h1);
+        assertThat(handlers(registry.linked(Event1.class))).containsExactly(subtypes2);
+        registry.unsubscribe(stable);
+        assertThat(handlers(registry.linked(Event2.class))).containsExactly(subtypes2);
+    }
+
+    @Test
+    void expungeCollected() throws InterruptedException {
+        HandlersRegistry<EventBusHandler<?>> registry = new HandlersRegistry<>();
+        Handler1 kept = new Handler1();
+        registry.subscribe(kept);
+        Handler1 h1 = new Handler1();
+        HandlerSubtypes subtypes = new HandlerSubtypes();
+        Handler234 h234 = new Handler234();
+        WeakReference<Handler1> ref1 = new WeakReference<>(h1);
+        WeakReference<HandlerSubtypes> refSubtypes = new WeakReference<>(subtypes);
+        WeakReference<Handler234> ref234 = new WeakReference<>(h234);
+        registry.subscribe(h1);
+        registry.subscribe(subtypes);
+        registry.subscribe(h234);
+        assertThat(registry.linked(Event1.class)).hasSize(3);
+        assertThat(registry.wildcards()).hasSize(1);
+
+        h1 = null;
+        subtypes = null;
+        h234 = null;
+        gc(ref1);
+        gc(refSubtypes);
+        gc(ref234);
+        // Links stay until expunge
+        assertThat(registry.linked(Event1.class)).hasSize(3);
+        registry.expunge();
+
+        assertThat(handlers(registry.linked(Event1.class))).containsExactly(kept);
+        assertThat(registry.wildcards()).hasSize(0);
+    }
+}
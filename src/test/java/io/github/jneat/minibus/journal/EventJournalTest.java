@@ -0,0 +1,169 @@
+package io.github.jneat.minibus.journal;
+
+import io.github.jneat.minibus.EventBusEvent;
+import io.github.jneat.minibus.EventBusHandler;
+import io.github.jneat.minibus.EventBusRing;
+import io.github.jneat.minibus.EventBusSimple;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EventJournalTest {
+
+    static class Text implements EventBusEvent {
+
+        final String value;
+
+        Text(String value) {
+            this.value = value;
+        }
+    }
+
+    static class TextSerializer implements EventSerializer<Text> {
+
+        @Override
+        public byte[] serialize(Text event) {
+            return event.value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Text deserialize(byte[] data) {
+            return new Text(new String(data, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void replayUnacknowledged() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        JournalConfig config = new JournalConfig(dir).segmentSize(64).fsync(FsyncPolicy.ALWAYS, 1, TimeUnit.SECONDS);
+
+        List<Long> offsets = new ArrayList<>();
+        try (EventJournal journal = new EventJournal(config)) {
+            for (int i = 0; i < 10; i++) {
+                offsets.add(journal.append(("record-" + i).getBytes(StandardCharsets.UTF_8)));
+            }
+            journal.acknowledge(offsets.get(0));
+            journal.acknowledge(offsets.get(1));
+            journal.acknowledge(offsets.get(5));
+            assertThat(journal.checkpoint()).isEqualTo(offsets.get(2));
+        }
+
+        List<String> replayed = new ArrayList<>();
+        try (EventJournal journal = new EventJournal(config)) {
+            assertThat(journal.replay((data, offset) -> {
+                replayed.add(new String(data, StandardCharsets.UTF_8));
+                journal.acknowledge(offset);
+            })).isEqualTo(8);
+            long next = journal.append("next".getBytes(StandardCharsets.UTF_8));
+            assertThat(next).isGreaterThan(offsets.get(9));
+        }
+        // Record 5 was acknowledged, but it is after checkpoint
+        assertThat(replayed).containsExactly("record-2", "record-3", "record-4", "record-5", "record-6", "record-7",
+                "record-8", "record-9");
+
+        try (EventJournal journal = new EventJournal(config)) {
+            assertThat(journal.replay((data, offset) -> replayed.add("unexpected"))).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void journaledBus() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        JournalConfig config = new JournalConfig(dir);
+        List<String> handled = new ArrayList<>();
+        EventBusHandler<Text> handler = new EventBusHandler<Text>() {
+            @Override
+            public void handle(Text event) {
+                handled.add(event.value);
+            }
+        };
+
+        try (JournaledEventBus<Text, EventBusHandler<?>> bus = new JournaledEventBus<>(new EventBusSimple<>(),
+                new EventJournal(config), new TextSerializer())) {
+            bus.subscribe(handler);
+            assertThat(bus.replay()).isEqualTo(0);
+            bus.publish(new Text("a"));
+            bus.publish(new Text("b"));
+        }
+        assertThat(handled).containsExactly("a", "b");
+
+        // Record that was never acknowledged, as if process died before handlers finished
+        try (EventJournal journal = new EventJournal(config)) {
+            journal.append("c".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (JournaledEventBus<Text, EventBusHandler<?>> bus = new JournaledEventBus<>(new EventBusSimple<>(),
+                new EventJournal(config), new TextSerializer())) {
+            bus.subscribe(handler);
+            assertThat(bus.replay()).isEqualTo(1);
+        }
+        assertThat(handled).containsExactly("a", "b", "c");
+    }
+
+    @Test
+    void journaledRing() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        List<String> handled = new CopyOnWriteArrayList<>();
+        EventBusHandler<Text> handler = new EventBusHandler<Text>() {
+            @Override
+            public void handle(Text event) {
+                handled.add(event.value);
+            }
+        };
+
+        EventBusRing<Text, EventBusHandler<?>> ring = new EventBusRing<>(8);
+        JournaledEventBus<Text, EventBusHandler<?>> bus = new JournaledEventBus<>(ring,
+                new EventJournal(new JournalConfig(dir)), new TextSerializer());
+        bus.subscribe(handler);
+        bus.publish(new Text("a"));
+        bus.close();
+        // Wrapped bus is closed as well, after its events were handled
+        assertThat(handled).containsExactly("a");
+        List<Throwable> errors = new ArrayList<>();
+        ring.publish(new Text("b"), null, (e, h, th) -> errors.add(th));
+        assertThat(errors).hasSize(1);
+
+        // Event dropped by wrapped bus goes to failure callback
+        EventBusRing<Text, EventBusHandler<?>> closed = new EventBusRing<>(8);
+        closed.close();
+        try (JournaledEventBus<Text, EventBusHandler<?>> dropping = new JournaledEventBus<>(closed,
+                new EventJournal(new JournalConfig(dir)), new TextSerializer())) {
+            dropping.subscribe(handler);
+            List<String> failures = new ArrayList<>();
+            dropping.publish(new Text("c"), null,
+                    (e, h, th) -> failures.add(e.value + " " + h + " " + th.getClass().getSimpleName()));
+            assertThat(failures).containsExactly("c null RejectedExecutionException");
+        }
+        assertThat(handled).containsExactly("a");
+    }
+
+    @Test
+    void journaledBusSticky() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        List<String> handled = new ArrayList<>();
+        EventBusHandler<Text> handler = new EventBusHandler<Text>() {
+            @Override
+            public void handle(Text event) {
+                handled.add(event.value);
+            }
+        };
+
+        try (JournaledEventBus<Text, EventBusHandler<?>> bus = new JournaledEventBus<>(new EventBusSimple<>(),
+                new EventJournal(new JournalConfig(dir)), new TextSerializer())) {
+            bus.publishSticky(new Text("a"));
+            assertThat(bus.getStickyEvent(Text.class).value).isEqualTo("a");
+            bus.subscribe(handler, true);
+            assertThat(handled).containsExactly("a");
+            assertThat(bus.removeStickyEvent(Text.class).value).isEqualTo("a");
+            assertThat(bus.getStickyEvent(Text.class)).isNull();
+        }
+    }
+}
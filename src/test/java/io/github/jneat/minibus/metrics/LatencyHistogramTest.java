@@ -0,0 +1,29 @@
+package io.github.jneat.minibus.metrics;
+
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LatencyHistogramTest {
+
+    @Test
+    void percentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertThat(h.getPercentileNanos(99)).isEqualTo(0);
+
+        for (int i = 0; i < 90; i++) {
+            h.record(1_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            h.record(1_000_000);
+        }
+
+        assertThat(h.getCount()).isEqualTo(100);
+        assertThat(h.getMaxNanos()).isEqualTo(1_000_000);
+        assertThat(h.getMeanNanos()).isEqualTo(100_900);
+        // Power of two buckets: 1000 falls to [512, 1024), 1_000_000 to [524288, 1048576)
+        assertThat(h.getPercentileNanos(50)).isEqualTo(1023);
+        assertThat(h.getPercentileNanos(90)).isEqualTo(1023);
+        assertThat(h.getPercentileNanos(95)).isEqualTo(1_000_000);
+    }
+}